@@ -0,0 +1,157 @@
+package de.intranda.goobi.plugins;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the number of parallel I/O operations on the shared storage. The limit is adjusted with the AIMD algorithm: as long as the latency stays
+ * below the threshold, the limit grows by one after each full round of operations. If the latency exceeds the threshold, the limit is reduced to
+ * 70 percent. The threshold is either configured or derived from the long term average latency.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * A single I/O operation
+     */
+    @FunctionalInterface
+    public interface IoOperation<E extends Exception> {
+        void run() throws E;
+    }
+
+    private static final double DECREASE_FACTOR = 0.7;
+    // the short term latency may reach this multiple of the long term latency, if no target latency is configured
+    private static final double TOLERANCE = 2.0;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double targetLatency;
+
+    private int limit;
+    private int inFlight;
+
+    private long samples;
+    private int successesSinceIncrease;
+    private long lastDecrease;
+
+    private double shortTermLatency;
+    private double longTermLatency;
+    private double minLatency = Double.MAX_VALUE;
+    private double maxLatency;
+
+    /**
+     *
+     * @param minLimit lowest number of parallel operations
+     * @param maxLimit highest number of parallel operations
+     * @param targetLatency latency in milliseconds that should not be exceeded, 0 to derive it from the observed latencies
+     */
+    public AdaptiveConcurrencyLimiter(int minLimit, int maxLimit, long targetLatency) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetLatency = targetLatency;
+        limit = this.minLimit;
+    }
+
+    /**
+     * Run an operation as soon as the current limit allows it and record its latency
+     *
+     * @param operation the operation
+     * @throws E the exception of the operation
+     * @throws InterruptedIOException if the thread is interrupted while waiting, the operation is not run
+     */
+    public <E extends Exception> void execute(IoOperation<E> operation) throws E, InterruptedIOException {
+        try {
+            acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // never run without a permit, the limit matters most when the storage is slow
+            InterruptedIOException exception = new InterruptedIOException("Interrupted while waiting for an I/O permit");
+            exception.initCause(e);
+            throw exception;
+        }
+        long start = System.nanoTime();
+        try {
+            operation.run();
+        } finally {
+            release(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wait until another operation is allowed
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void acquire() throws InterruptedException {
+        while (inFlight >= limit) {
+            wait();
+        }
+        inFlight++;
+    }
+
+    /**
+     * Finish an operation and adjust the limit
+     *
+     * @param latencyNanos duration of the operation
+     */
+    public synchronized void release(long latencyNanos) {
+        inFlight--;
+        double latency = latencyNanos / 1_000_000d;
+        if (samples == 0) {
+            shortTermLatency = latency;
+            longTermLatency = latency;
+        } else {
+            shortTermLatency = shortTermLatency * 0.7 + latency * 0.3;
+            longTermLatency = longTermLatency * 0.99 + latency * 0.01;
+        }
+        samples++;
+        minLatency = Math.min(minLatency, latency);
+        maxLatency = Math.max(maxLatency, latency);
+
+        double threshold = targetLatency > 0 ? targetLatency : longTermLatency * TOLERANCE;
+        if (shortTermLatency > threshold) {
+            // reduce only once per round, the operations of the current round were started with the old limit
+            if (samples - lastDecrease >= limit) {
+                limit = Math.max(minLimit, (int) (limit * DECREASE_FACTOR));
+                lastDecrease = samples;
+            }
+            successesSinceIncrease = 0;
+        } else if (++successesSinceIncrease >= limit) {
+            limit = Math.min(maxLimit, limit + 1);
+            successesSinceIncrease = 0;
+        }
+        notifyAll();
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return average latency of the last operations in milliseconds
+     */
+    public synchronized double getAverageLatency() {
+        return shortTermLatency;
+    }
+
+    /**
+     * @return long term average latency in milliseconds
+     */
+    public synchronized double getLongTermLatency() {
+        return longTermLatency;
+    }
+
+    public synchronized double getMinLatency() {
+        return samples == 0 ? 0 : minLatency;
+    }
+
+    public synchronized double getMaxLatency() {
+        return maxLatency;
+    }
+
+    public synchronized long getNumberOfOperations() {
+        return samples;
+    }
+}
@@ -0,0 +1,188 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes files so that they are either complete or not visible at all, even if the server crashes. Each file is written to a temporary file in the
+ * target folder first. The temporary files are committed in batches: all files of the batch are synced to disc, renamed to their final names and
+ * then each folder is synced once. Until the commit, the files exist only under their temporary names.
+ */
+@Log4j2
+public class AtomicFileWriter implements AutoCloseable {
+
+    /**
+     * Writes the content of a file
+     */
+    @FunctionalInterface
+    public interface ContentWriter<E extends Exception> {
+        void write(String filename) throws E;
+    }
+
+    private static final String TEMP_PREFIX = ".";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final int batchSize;
+
+    // temporary file and final name of each file in the current batch
+    private final List<Path[]> pending = new ArrayList<>();
+    // final names of the files that were not made visible by the last commit
+    private final List<Path> failedFiles = new ArrayList<>();
+
+    @Getter
+    private int committedFiles;
+    @Getter
+    private int commits;
+
+    /**
+     *
+     * @param batchSize number of files that are committed together, 1 commits each file on its own
+     */
+    public AtomicFileWriter(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Write a file. The file becomes visible when the batch is committed.
+     *
+     * @param target final name of the file
+     * @param writer writes the content to the given file name
+     * @throws E the exception of the writer
+     * @throws IOException if the batch cannot be committed
+     */
+    public <E extends Exception> void write(Path target, ContentWriter<E> writer) throws E, IOException {
+        Path tempFile = getTemporaryFile(target);
+        try {
+            writer.write(tempFile.toString());
+        } catch (Exception e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        pending.add(new Path[] { tempFile, target });
+        if (pending.size() >= batchSize) {
+            commit();
+        }
+    }
+
+    /**
+     * Make all pending files durable and visible under their final names. If a file cannot be committed, the remaining temporary files of the batch
+     * are deleted and their final names are returned by {@link #getFailedFiles()}.
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        failedFiles.clear();
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<Path[]> batch = new ArrayList<>(pending);
+        pending.clear();
+        int renamed = 0;
+        try {
+            // the content must be on disc before the new name is, otherwise a crash can leave an empty file under the final name
+            for (Path[] file : batch) {
+                sync(file[0], false);
+            }
+            Set<Path> folders = new LinkedHashSet<>();
+            for (Path[] file : batch) {
+                rename(file[0], file[1]);
+                renamed++;
+                folders.add(file[1].toAbsolutePath().getParent());
+            }
+            for (Path folder : folders) {
+                sync(folder, true);
+            }
+        } finally {
+            for (int i = renamed; i < batch.size(); i++) {
+                failedFiles.add(batch.get(i)[1]);
+                Files.deleteIfExists(batch.get(i)[0]);
+            }
+        }
+        committedFiles += batch.size();
+        commits++;
+    }
+
+    /**
+     * Get the files that were not committed, because the last commit failed. A commit can also fail inside {@link #write(Path, ContentWriter)},
+     * then the files written before in the same batch are lost as well.
+     *
+     * @return final names of the files that are not visible
+     */
+    public List<Path> getFailedFiles() {
+        return Collections.unmodifiableList(failedFiles);
+    }
+
+    /**
+     * Commit the pending files
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+    }
+
+    /**
+     * Delete the temporary files left over by a crash. Their content may be incomplete, the files are written again by the next import. Only files
+     * last modified before the given time are deleted, so the files of an import that is running at the same time are kept.
+     *
+     * @param folder the target folder
+     * @param olderThan time in milliseconds, usually the start of the current process
+     * @return number of deleted files
+     * @throws IOException
+     */
+    public static int removeTemporaryFiles(Path folder, long olderThan) throws IOException {
+        if (!Files.isDirectory(folder)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, TEMP_PREFIX + "*" + TEMP_SUFFIX)) {
+            for (Path file : stream) {
+                try {
+                    if (Files.getLastModifiedTime(file).toMillis() < olderThan && Files.deleteIfExists(file)) {
+                        deleted++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // committed by the other import in the meantime
+                    log.debug("Temporary file is gone: {}", e.getMessage());
+                }
+            }
+        }
+        return deleted;
+    }
+
+    static Path getTemporaryFile(Path target) {
+        return target.resolveSibling(TEMP_PREFIX + target.getFileName() + TEMP_SUFFIX);
+    }
+
+    protected void rename(Path source, Path target) throws IOException {
+        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    protected void sync(Path path, boolean directory) throws IOException {
+        if (!directory) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // not every platform can sync a folder, the renamed files are still complete
+            log.debug("Cannot sync folder {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compact probabilistic set of strings. A negative answer is always correct, a positive answer can be wrong with the configured probability.
+ */
+public class BloomFilter {
+
+    private final long[] bits;
+
+    private final long numberOfBits;
+
+    private final int numberOfHashes;
+
+    /**
+     * 
+     * @param expectedElements number of elements that will be added
+     * @param falsePositiveProbability accepted probability of a wrong positive answer
+     */
+    public BloomFilter(long expectedElements, double falsePositiveProbability) {
+        long n = Math.max(1, expectedElements);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        numberOfBits = Math.max(64, m);
+        numberOfHashes = Math.max(1, (int) Math.round((double) numberOfBits / n * Math.log(2)));
+        bits = new long[(int) ((numberOfBits + 63) / 64)];
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numberOfHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numberOfBits);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numberOfHashes; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, numberOfBits);
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return size of the filter in bytes
+     */
+    public long getSize() {
+        return bits.length * 8L;
+    }
+
+    /**
+     * 64 bit FNV-1a hash, mixed with the murmur3 finalizer
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
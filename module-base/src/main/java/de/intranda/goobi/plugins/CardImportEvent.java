@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single phase of the import of a card. The events are only written, if a recording with this event is running, e.g.
+ * started with the settings in <code>katzoom-import.jfc</code>. Otherwise creating an event costs next to nothing.
+ *
+ * A card has a scan event for the whole catalogue, two mets build events before and after the files are copied, a copy event for each file, a mets
+ * write event and an ead event.
+ */
+@Name(CardImportEvent.NAME)
+@Label("KatZoom Card Import")
+@Category({ "Goobi", "KatZoom Import" })
+@Description("A single phase of the import of a card")
+@StackTrace(false)
+public class CardImportEvent extends Event {
+
+    public static final String NAME = "de.intranda.goobi.plugins.katzoom.CardImport";
+
+    public static final String SCAN = "scan";
+    public static final String METS_BUILD = "mets build";
+    public static final String COPY = "copy";
+    public static final String METS_WRITE = "mets write";
+    public static final String EAD = "ead node";
+
+    public static final String OK = "ok";
+    public static final String ERROR = "error";
+
+    @Label("Catalogue")
+    private String catalog;
+
+    @Label("Card Id")
+    private int cardId;
+
+    @Label("Process Title")
+    private String processTitle;
+
+    @Label("Phase")
+    private String phase;
+
+    @Label("Derivative")
+    @Description("Target folder of a copied file")
+    private String derivative;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    @Label("Outcome")
+    private String outcome;
+
+    /**
+     * Start a phase of a card
+     *
+     * @param phase name of the phase
+     * @param kip the card
+     * @return the started event
+     */
+    public static CardImportEvent start(String phase, KatzoomImportObject kip) {
+        CardImportEvent event = new CardImportEvent();
+        event.phase = phase;
+        if (kip != null) {
+            event.catalog = kip.getCatalog();
+            event.cardId = kip.getId();
+            event.processTitle = kip.getLabel();
+        }
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Start the scan of a catalogue folder
+     *
+     * @param catalog name of the catalogue
+     * @return the started event
+     */
+    public static CardImportEvent startScan(String catalog) {
+        CardImportEvent event = start(SCAN, null);
+        event.catalog = catalog;
+        return event;
+    }
+
+    /**
+     * Start the copy of a single file
+     *
+     * @param kip the card
+     * @param derivative the target folder
+     * @return the started event
+     */
+    public static CardImportEvent startCopy(KatzoomImportObject kip, String derivative) {
+        CardImportEvent event = start(COPY, kip);
+        event.derivative = derivative;
+        return event;
+    }
+
+    /**
+     * End the phase and write the event, if it is enabled and exceeds the threshold of the recording
+     *
+     * @param result outcome of the phase
+     */
+    public void finish(String result) {
+        finish(result, 0);
+    }
+
+    /**
+     * End the phase and write the event, if it is enabled and exceeds the threshold of the recording
+     *
+     * @param result outcome of the phase
+     * @param size number of bytes processed in this phase
+     */
+    public void finish(String result, long size) {
+        end();
+        if (shouldCommit()) {
+            outcome = result;
+            bytes = size;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.Properties;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Figures of a catalogue that are expensive to calculate. They are collected while the catalogue is scanned and imported and stored in a small
+ * properties file, so the catalogue summary never needs to walk through the image folders.
+ *
+ * The file is read and written by each import run. If several nodes import the same catalogue at the same time, the counters of one node can be
+ * overwritten by another one.
+ */
+@Getter
+public class CatalogStatistics {
+
+    // number of cards found during the last scan of the catalogue folder
+    private int scannedCards;
+    // size of all files of the catalogue
+    private long totalBytes;
+    // time of the last scan in milliseconds, 0 if the catalogue was never scanned
+    private long lastScan;
+
+    // distinct cards imported successfully in any run
+    private int importedCards;
+    // cards imported successfully in the last run
+    private int lastRunImportedCards;
+    // cards that could not be imported in the last run
+    private int failedCards;
+    // time of the last import in milliseconds, 0 if nothing was imported yet
+    private long lastImport;
+
+    // total positions of the imported cards, so a card imported again is not counted twice
+    @Getter(AccessLevel.NONE)
+    private BitSet importedPositions = new BitSet();
+
+    /**
+     * Read the statistics of a catalogue
+     *
+     * @param file the statistics file
+     * @return the statistics or empty statistics, if the file does not exist yet
+     * @throws IOException
+     */
+    public static CatalogStatistics load(Path file) throws IOException {
+        CatalogStatistics statistics = new CatalogStatistics();
+        if (!Files.exists(file)) {
+            return statistics;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            properties.load(in);
+        }
+        statistics.scannedCards = Integer.parseInt(properties.getProperty("scannedCards", "0"));
+        statistics.totalBytes = Long.parseLong(properties.getProperty("totalBytes", "0"));
+        statistics.lastScan = Long.parseLong(properties.getProperty("lastScan", "0"));
+        statistics.importedCards = Integer.parseInt(properties.getProperty("importedCards", "0"));
+        statistics.lastRunImportedCards = Integer.parseInt(properties.getProperty("lastRunImportedCards", "0"));
+        statistics.importedPositions = BitSet.valueOf(Base64.getDecoder().decode(properties.getProperty("importedPositions", "")));
+        statistics.failedCards = Integer.parseInt(properties.getProperty("failedCards", "0"));
+        statistics.lastImport = Long.parseLong(properties.getProperty("lastImport", "0"));
+        return statistics;
+    }
+
+    /**
+     * Write the statistics. The file is replaced in a single step, so a reader never sees a partly written file.
+     *
+     * @param file the statistics file
+     * @throws IOException
+     */
+    public void save(Path file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("scannedCards", String.valueOf(scannedCards));
+        properties.setProperty("totalBytes", String.valueOf(totalBytes));
+        properties.setProperty("lastScan", String.valueOf(lastScan));
+        properties.setProperty("importedCards", String.valueOf(importedCards));
+        properties.setProperty("lastRunImportedCards", String.valueOf(lastRunImportedCards));
+        properties.setProperty("importedPositions", Base64.getEncoder().encodeToString(importedPositions.toByteArray()));
+        properties.setProperty("failedCards", String.valueOf(failedCards));
+        properties.setProperty("lastImport", String.valueOf(lastImport));
+
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            properties.store(out, "KatZoom catalogue statistics");
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Store the result of a scan of the catalogue folder
+     *
+     * @param cards number of cards found
+     * @param bytes size of all files
+     */
+    public void addScan(int cards, long bytes) {
+        scannedCards = cards;
+        totalBytes = bytes;
+        lastScan = System.currentTimeMillis();
+    }
+
+    /**
+     * Store the result of an import run. Cards that were already imported in an earlier run are not counted again.
+     *
+     * @param imported total positions of the cards imported in this run
+     * @param failed number of cards that could not be imported in this run
+     */
+    public void addImport(BitSet imported, int failed) {
+        importedPositions.or(imported);
+        importedCards = importedPositions.cardinality();
+        lastRunImportedCards = imported.cardinality();
+        failedCards = failed;
+        lastImport = System.currentTimeMillis();
+    }
+}
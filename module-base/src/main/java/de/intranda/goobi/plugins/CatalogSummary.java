@@ -0,0 +1,127 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Overview of a catalogue for the selection of the mass import. The figures are taken from the small index files in the catalogue folder and from
+ * the stored {@link CatalogStatistics}, the image folders are never read. Figures that are not available are -1.
+ */
+@Getter
+@Log4j2
+public class CatalogSummary {
+
+    public enum ImportState {
+        // the catalogue was never scanned
+        NEW,
+        // the cards are known, but nothing was imported yet
+        SCANNED,
+        // some cards are imported
+        PARTLY_IMPORTED,
+        // all cards are imported
+        IMPORTED
+    }
+
+    private final String name;
+
+    private final boolean backsideScanned;
+
+    // from the *.ind file
+    private int numberOfCards = -1;
+    private int numberOfLetters = -1;
+    // from the *.lli file, 0 if the catalogue has no trays
+    private int numberOfTrays;
+    // from the *-laden.liste file
+    private int numberOfImages = -1;
+    private int numberOfBatches = -1;
+    // content of the *.tix file
+    private long tix = -1;
+
+    // from the statistics
+    private long totalBytes = -1;
+    private int importedCards;
+    private int failedCards;
+    private long lastImport;
+    private ImportState importState = ImportState.NEW;
+
+    private CatalogSummary(String name, boolean backsideScanned) {
+        this.name = name;
+        this.backsideScanned = backsideScanned;
+    }
+
+    /**
+     * Create the summary of a catalogue
+     *
+     * @param name name of the catalogue folder
+     * @param folder the catalogue folder
+     * @param statisticsFile stored statistics of the catalogue, might not exist
+     * @param backsideScanned true, if the catalogue is configured as backside scanned
+     * @return the summary
+     */
+    public static CatalogSummary create(String name, Path folder, Path statisticsFile, boolean backsideScanned) {
+        CatalogSummary summary = new CatalogSummary(name, backsideScanned);
+        // only the names in the catalogue folder are listed, the parsed index files are cached
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*.{ind,lli,tix,liste}")) {
+            for (Path file : stream) {
+                summary.readIndexFile(file);
+            }
+        } catch (IOException e) {
+            log.error(e);
+        }
+
+        try {
+            CatalogStatistics statistics = CatalogStatistics.load(statisticsFile);
+            summary.addStatistics(statistics);
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot read statistics of catalogue {}: {}", name, e.getMessage());
+        }
+        return summary;
+    }
+
+    private void readIndexFile(Path file) {
+        String fileName = file.getFileName().toString();
+        try {
+            if (fileName.endsWith(".ind") && !fileName.contains("adm")) {
+                IndexFiles.LetterIndexFile letters = IndexFiles.readLetterIndex(file);
+                numberOfLetters = letters.size();
+                numberOfCards = letters.getTotal();
+            } else if (fileName.endsWith(".lli")) {
+                numberOfTrays = IndexFiles.readTrayIndex(file).size();
+            } else if (fileName.endsWith(".tix")) {
+                tix = IndexFiles.readTix(file);
+            } else if (fileName.endsWith(".liste")) {
+                IndexFiles.BatchListFile batches = IndexFiles.readBatchList(file);
+                numberOfImages = batches.getNumberOfImages();
+                numberOfBatches = batches.getBatches().size();
+            }
+        } catch (IndexFileException e) {
+            log.error("Invalid index file: {}", e.getMessage());
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    private void addStatistics(CatalogStatistics statistics) {
+        importedCards = statistics.getImportedCards();
+        failedCards = statistics.getFailedCards();
+        lastImport = statistics.getLastImport();
+        if (statistics.getLastScan() == 0 && statistics.getLastImport() == 0) {
+            return;
+        }
+        totalBytes = statistics.getTotalBytes();
+        // the scan is more exact than the index file, it knows the cards that are actually in the folders
+        int expectedCards = statistics.getScannedCards() > 0 ? statistics.getScannedCards() : numberOfCards;
+        if (importedCards == 0) {
+            importState = ImportState.SCANNED;
+        } else if (expectedCards < 0 || importedCards < expectedCards) {
+            importState = ImportState.PARTLY_IMPORTED;
+        } else {
+            importState = ImportState.IMPORTED;
+        }
+    }
+}
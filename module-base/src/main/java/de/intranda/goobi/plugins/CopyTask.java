@@ -0,0 +1,15 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+@Getter
+@AllArgsConstructor
+public class CopyTask {
+
+    private Path source;
+
+    private Path destination;
+}
@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import de.sub.goobi.persistence.managers.MySQLHelper;
+
+/**
+ * Reads the titles of all existing processes from the Goobi database. The titles are read page by page, they are never collected in a list.
+ */
+public class DatabaseTitleSource implements ProcessTitleCheck.TitleSource {
+
+    private static final int LOOKUP_BLOCK_SIZE = 1000;
+
+    // number of titles read with one query
+    private static final int PAGE_SIZE = 10000;
+
+    @Override
+    public long countTitles() throws IOException {
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("SELECT COUNT(*) FROM prozesse")) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    @Override
+    public void readTitles(Consumer<String> consumer) throws IOException {
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            // read the titles in pages by the primary key, the driver would load the whole result into memory otherwise
+            try (PreparedStatement statement =
+                    connection.prepareStatement("SELECT ProzesseID, Titel FROM prozesse WHERE ProzesseID > ? ORDER BY ProzesseID LIMIT ?")) {
+                int lastId = Integer.MIN_VALUE;
+                int rows;
+                do {
+                    statement.setInt(1, lastId);
+                    statement.setInt(2, PAGE_SIZE);
+                    rows = 0;
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            lastId = rs.getInt(1);
+                            consumer.accept(rs.getString(2));
+                            rows++;
+                        }
+                    }
+                } while (rows == PAGE_SIZE);
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    @Override
+    public Set<String> findTitles(Collection<String> titles) throws IOException {
+        Set<String> found = new HashSet<>();
+        List<String> list = new ArrayList<>(titles);
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            // query the titles in blocks, the statement size is limited
+            for (int start = 0; start < list.size(); start += LOOKUP_BLOCK_SIZE) {
+                List<String> block = list.subList(start, Math.min(start + LOOKUP_BLOCK_SIZE, list.size()));
+                String sql = "SELECT Titel FROM prozesse WHERE Titel IN (" + String.join(",", Collections.nCopies(block.size(), "?")) + ")";
+                try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                    for (int i = 0; i < block.size(); i++) {
+                        statement.setString(i + 1, block.get(i));
+                    }
+                    try (ResultSet rs = statement.executeQuery()) {
+                        while (rs.next()) {
+                            found.add(rs.getString(1));
+                        }
+                    }
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            closeConnection(connection);
+        }
+        return found;
+    }
+
+    /**
+     * Find the newest process with a title that was created after a given time
+     *
+     * @param title title of the process
+     * @param createdAfter time in milliseconds
+     * @return id of the process, or null if no such process exists
+     * @throws IOException
+     */
+    public Integer findProcessId(String title, long createdAfter) throws IOException {
+        Connection connection = null;
+        try {
+            connection = MySQLHelper.getInstance().getConnection();
+            try (PreparedStatement statement = connection
+                    .prepareStatement("SELECT ProzesseID FROM prozesse WHERE Titel = ? AND erstellungsdatum >= ? ORDER BY ProzesseID DESC LIMIT 1")) {
+                statement.setString(1, title);
+                // the creation date is stored in seconds
+                statement.setTimestamp(2, new Timestamp(createdAfter / 1000 * 1000));
+                try (ResultSet rs = statement.executeQuery()) {
+                    return rs.next() ? rs.getInt(1) : null;
+                }
+            }
+        } catch (SQLException e) {
+            throw new IOException(e);
+        } finally {
+            closeConnection(connection);
+        }
+    }
+
+    private void closeConnection(Connection connection) throws IOException {
+        if (connection != null) {
+            try {
+                MySQLHelper.closeConnection(connection);
+            } catch (SQLException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Copies the derivatives of the cards after the processes are created. During the import only the master images and the text files are copied,
+ * the media and pdf files are listed in a manifest instead. The stage reads the manifest in the background and copies the files with its own
+ * threads into the folders of the created processes.
+ *
+ * <pre>
+ * process title  time of the import  source file  target relative to the process folder
+ * </pre>
+ *
+ * The process of a card is created by Goobi after the import, so its id is not known when the manifest is written. A card is only assigned to a
+ * process with its title that was created after the time of the import, older processes with the same title are never used. Cards whose process
+ * does not exist yet stay in the manifest and are tried again later. The retries only count the passes that copied nothing, so
+ * a large import that creates its processes slowly is not given up. The manifest is deleted as soon as all files are copied.
+ */
+@Log4j2
+public class DerivativeStage implements Closeable {
+
+    private static final String SEPARATOR = "\t";
+    private static final String MANIFEST_PREFIX = "katzoom-derivatives-";
+    private static final String MANIFEST_SUFFIX = ".tsv";
+
+    private static final AtomicInteger manifestCounter = new AtomicInteger();
+
+    private final ExecutorService copyPool;
+    private final ScheduledExecutorService scheduler;
+    private final FileCopier copier;
+    private final ProcessFolderResolver processFolderResolver;
+    @Getter
+    private final int threads;
+    @Getter
+    private final long retryDelay;
+    @Getter
+    private final int retries;
+    // manifests with a pass waiting or running, each manifest is processed by one chain of passes only
+    private final Set<Path> scheduledManifests = ConcurrentHashMap.newKeySet();
+
+    @Getter
+    private final AtomicInteger copiedFiles = new AtomicInteger();
+
+    /**
+     *
+     * @param threads number of parallel copies
+     * @param copier copies a single file, creates the target folder if needed
+     * @param processFolderResolver finds the folder of the process created for a card
+     * @param retryDelay milliseconds to wait before cards without process are tried again
+     * @param retries number of retries for cards without process
+     */
+    public DerivativeStage(int threads, FileCopier copier, ProcessFolderResolver processFolderResolver, long retryDelay, int retries) {
+        copyPool = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "katzoom-derivatives");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "katzoom-derivative-stage");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.threads = threads;
+        this.copier = copier;
+        this.processFolderResolver = processFolderResolver;
+        this.retryDelay = retryDelay;
+        this.retries = retries;
+    }
+
+    /**
+     * Finds the folder of the process that was created for a card
+     */
+    @FunctionalInterface
+    public interface ProcessFolderResolver {
+
+        /**
+         * @param processTitle title of the process
+         * @param createdAfter time in milliseconds of the import, processes created before are ignored
+         * @return the process folder, or null if the process does not exist yet
+         */
+        Path find(String processTitle, long createdAfter);
+    }
+
+    /**
+     * Writes the derivatives of an import run into a new manifest
+     */
+    public static class ManifestWriter implements Closeable {
+        @Getter
+        private final Path manifest;
+        private final BufferedWriter out;
+        // the processes of the cards are created after this time
+        private final long created = System.currentTimeMillis();
+
+        /**
+         * Create a new manifest. Each import run writes its own file, so a running stage never reads a file that is still written.
+         *
+         * @param folder folder of the manifests
+         * @throws IOException
+         */
+        public ManifestWriter(Path folder) throws IOException {
+            Files.createDirectories(folder);
+            manifest = folder.resolve(MANIFEST_PREFIX + created + "-" + manifestCounter.incrementAndGet() + MANIFEST_SUFFIX);
+            // the stage only picks up complete manifests
+            out = Files.newBufferedWriter(manifest.resolveSibling(manifest.getFileName() + ".tmp"), StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Add a file of a card
+         *
+         * @param processTitle title of the process
+         * @param task the copy operation, the destination is relative to the process folder
+         * @throws IOException
+         */
+        public void add(String processTitle, CopyTask task) throws IOException {
+            out.write(processTitle + SEPARATOR + created + SEPARATOR + task.getSource() + SEPARATOR + task.getDestination());
+            out.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+            Files.move(manifest.resolveSibling(manifest.getFileName() + ".tmp"), manifest, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Process a manifest in the background. Cards without process are tried again after the retry delay. A manifest that is already scheduled is
+     * ignored.
+     *
+     * @param manifest the manifest
+     */
+    public void schedule(Path manifest) {
+        if (scheduledManifests.add(manifest)) {
+            schedule(manifest, 0, 0, Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Process all manifests of a folder in the background, e.g. those left over after a restart
+     *
+     * @param folder folder of the manifests
+     */
+    public void scheduleAll(Path folder) {
+        if (!Files.isDirectory(folder)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, MANIFEST_PREFIX + "*" + MANIFEST_SUFFIX)) {
+            for (Path manifest : stream) {
+                schedule(manifest);
+            }
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    private void schedule(Path manifest, long delay, int attempt, int previouslyRemaining) {
+        scheduler.schedule(() -> {
+            try {
+                int remaining = process(manifest);
+                // a pass that copied something starts the retries again
+                int failedAttempts = remaining < previouslyRemaining ? 0 : attempt + 1;
+                if (remaining > 0 && failedAttempts < retries) {
+                    schedule(manifest, retryDelay, failedAttempts, remaining);
+                    return;
+                }
+                if (remaining > 0) {
+                    log.warn("{} derivatives in {} could not be copied, the processes do not exist", remaining, manifest);
+                }
+            } catch (IOException e) {
+                log.error(e);
+            }
+            // the next import or restart picks up the manifest again
+            scheduledManifests.remove(manifest);
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Copy the files of all cards whose process exists. The manifest is rewritten with the remaining cards or deleted, if no card is left.
+     *
+     * @param manifest the manifest
+     * @return number of files that are not copied yet
+     * @throws IOException if the manifest cannot be read or written
+     */
+    public int process(Path manifest) throws IOException {
+        if (!Files.exists(manifest)) {
+            return 0;
+        }
+        Map<String, List<String[]>> cards = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] values = line.split(SEPARATOR, -1);
+                if (values.length == 4) {
+                    cards.computeIfAbsent(values[0] + SEPARATOR + values[1], k -> new ArrayList<>()).add(values);
+                }
+            }
+        }
+
+        List<String[]> remaining = new ArrayList<>();
+        List<Future<String[]>> copies = new ArrayList<>();
+        for (List<String[]> card : cards.values()) {
+            String[] first = card.get(0);
+            Path processFolder = processFolderResolver.find(first[0], Long.parseLong(first[1]));
+            if (processFolder == null) {
+                remaining.addAll(card);
+                continue;
+            }
+            for (String[] values : card) {
+                copies.add(copyPool.submit(() -> copy(values, processFolder)));
+            }
+        }
+        for (Future<String[]> copy : copies) {
+            try {
+                String[] failed = copy.get();
+                if (failed != null) {
+                    remaining.add(failed);
+                }
+            } catch (ExecutionException e) {
+                log.error(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        if (remaining.isEmpty()) {
+            Files.delete(manifest);
+        } else {
+            Path tempFile = manifest.resolveSibling(manifest.getFileName() + ".tmp");
+            try (BufferedWriter out = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                for (String[] values : remaining) {
+                    out.write(String.join(SEPARATOR, values));
+                    out.newLine();
+                }
+            }
+            Files.move(tempFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return remaining.size();
+    }
+
+    /**
+     * Copy a single file, returns the entry if it failed
+     */
+    private String[] copy(String[] values, Path processFolder) {
+        Path destination = processFolder.resolve(values[3]);
+        try {
+            copier.copy(Paths.get(values[2]), destination);
+            copiedFiles.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            log.error("Cannot copy derivative {}: {}", values[2], e.getMessage());
+            return values;
+        }
+    }
+
+    /**
+     * Stop the stage, running copies are finished
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        copyPool.shutdown();
+        try {
+            copyPool.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package de.intranda.goobi.plugins;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Finds the sub nodes of an ead node by their label. The sub nodes of a node are read once, when the node is used the first time, so the letter,
+ * tray and card nodes of an existing tree are found without searching the list of sub nodes for every card. Only the nodes touched by an import are
+ * indexed.
+ *
+ * @param <N> type of the nodes
+ */
+public class EadNodeIndex<N> {
+
+    private final Function<N, List<N>> subNodes;
+    private final Function<N, String> label;
+    // sub nodes of each indexed node by their label
+    private final Map<N, Map<String, N>> index = new IdentityHashMap<>();
+
+    /**
+     *
+     * @param subNodes returns the sub nodes of a node
+     * @param label returns the label of a node
+     */
+    public EadNodeIndex(Function<N, List<N>> subNodes, Function<N, String> label) {
+        this.subNodes = subNodes;
+        this.label = label;
+    }
+
+    /**
+     * Find a sub node by its label
+     *
+     * @param parent the parent node
+     * @param name label of the sub node
+     * @return the first sub node with this label or null
+     */
+    public N find(N parent, String name) {
+        return getSubNodes(parent).get(name);
+    }
+
+    /**
+     * Add a new sub node to the index
+     *
+     * @param parent the parent node
+     * @param name label of the sub node
+     * @param node the new node
+     */
+    public void add(N parent, String name, N node) {
+        getSubNodes(parent).putIfAbsent(name, node);
+    }
+
+    /**
+     * Get the number of indexed parent nodes
+     */
+    public int size() {
+        return index.size();
+    }
+
+    private Map<String, N> getSubNodes(N parent) {
+        return index.computeIfAbsent(parent, p -> {
+            Map<String, N> nodes = new HashMap<>();
+            List<N> list = subNodes.apply(p);
+            if (list != null) {
+                for (N node : list) {
+                    String name = label.apply(node);
+                    if (name != null) {
+                        // keep the first node, like the search in the list did
+                        nodes.putIfAbsent(name, node);
+                    }
+                }
+            }
+            return nodes;
+        });
+    }
+}
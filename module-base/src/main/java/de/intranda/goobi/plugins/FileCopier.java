@@ -0,0 +1,13 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Copies a single file to its destination. Implementations must be idempotent, a copy can be repeated after a failure.
+ */
+@FunctionalInterface
+public interface FileCopier {
+
+    void copy(Path source, Path destination) throws IOException;
+}
@@ -0,0 +1,124 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Stores each file content only once. The files are hashed while they are copied into the shared blob folder, the first copy of a content is kept
+ * there and every destination file becomes a hard link to this blob. Identical scans like blank backsides or separator cards occupy the disc space
+ * only once.
+ *
+ * All links to a blob are the same file. A program that changes an image in place instead of replacing it changes the image in every process
+ * with the same content.
+ */
+@Log4j2
+public class FileDeduplicator implements FileCopier {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Path blobFolder;
+
+    private final AtomicLong uniqueFiles = new AtomicLong();
+    private final AtomicLong duplicateFiles = new AtomicLong();
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    public FileDeduplicator(Path blobFolder) {
+        this.blobFolder = blobFolder;
+    }
+
+    @Override
+    public void copy(Path source, Path destination) throws IOException {
+        // the file is read once: it is hashed while it is copied into a temporary file, so an incomplete blob is never visible
+        Files.createDirectories(blobFolder);
+        Path tempFile = blobFolder.resolve(UUID.randomUUID() + ".tmp");
+        String hash;
+        try {
+            hash = copyAndHash(source, tempFile);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
+        }
+        Path blob = blobFolder.resolve(hash.substring(0, 2)).resolve(hash);
+        boolean duplicate = Files.exists(blob);
+        if (duplicate) {
+            Files.delete(tempFile);
+        } else {
+            Files.createDirectories(blob.getParent());
+            try {
+                Files.move(tempFile, blob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // stored by another thread in the meantime, the content is the same
+                Files.delete(tempFile);
+            }
+        }
+
+        Files.deleteIfExists(destination);
+        try {
+            Files.createLink(destination, blob);
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // blob folder is on a different file system, fall back to a regular copy
+            log.warn("Cannot create a link to {}, copy file instead", blob);
+            Files.copy(blob, destination);
+            duplicate = false;
+        }
+
+        if (duplicate) {
+            duplicateFiles.incrementAndGet();
+            savedBytes.addAndGet(Files.size(blob));
+        } else {
+            uniqueFiles.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of files stored as new content
+     */
+    public long getUniqueFiles() {
+        return uniqueFiles.get();
+    }
+
+    /**
+     * @return number of files that were linked to an existing content
+     */
+    public long getDuplicateFiles() {
+        return duplicateFiles.get();
+    }
+
+    /**
+     * @return number of bytes that did not need to be stored again
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    private static String copyAndHash(Path source, Path target) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            Files.copy(in, target);
+        }
+        byte[] bytes = digest.digest();
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,164 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.goobi.production.importer.Record;
+
+import lombok.Getter;
+
+/**
+ * Plan of an import, written as tab separated text file. The plan contains a line for each card with process title, letter, tray, positions, number
+ * of pages, bytes to transfer, the target folders and the source files. Lines for the archive nodes are written whenever a new letter or tray starts,
+ * the last line contains the totals. A plan can be read again to create the records without scanning the catalogue.
+ *
+ * <pre>
+ * card  catalogue  id  title  total position  letter  letter position  tray  tray position  pages  bytes  archive node  target folders  files
+ *       admin letter  admin letter position
+ * ead   letter|tray  node path
+ * total cards  pages  bytes
+ * </pre>
+ */
+public class ImportPlan {
+
+    private static final String SEPARATOR = "\t";
+    private static final String LIST_SEPARATOR = "|";
+
+    private ImportPlan() {
+    }
+
+    /**
+     * Writes the plan line by line, nothing is kept in memory except the current letter and tray
+     */
+    public static class Writer implements Closeable {
+
+        private final BufferedWriter out;
+
+        private String currentLetter;
+        private String currentTray;
+
+        @Getter
+        private long numberOfCards;
+        @Getter
+        private long numberOfPages;
+        @Getter
+        private long numberOfBytes;
+
+        public Writer(Path planFile) throws IOException {
+            Files.createDirectories(planFile.getParent());
+            out = Files.newBufferedWriter(planFile, StandardCharsets.UTF_8);
+            out.write("# type" + SEPARATOR + "catalogue" + SEPARATOR + "id" + SEPARATOR + "title" + SEPARATOR + "position" + SEPARATOR + "letter"
+                    + SEPARATOR + "letter position" + SEPARATOR + "tray" + SEPARATOR + "tray position" + SEPARATOR + "pages" + SEPARATOR + "bytes"
+                    + SEPARATOR + "archive node" + SEPARATOR + "target folders" + SEPARATOR + "files" + SEPARATOR + "admin letter" + SEPARATOR
+                    + "admin letter position");
+            out.newLine();
+        }
+
+        /**
+         * Add a card to the plan
+         *
+         * @param kip the card
+         * @param tasks the planned copy operations, with target paths relative to the import folder
+         * @throws IOException
+         */
+        public void writeCard(KatzoomImportObject kip, List<CopyTask> tasks) throws IOException {
+            String letter = StringUtils.defaultString(kip.getLetterName());
+            String tray = StringUtils.defaultString(kip.getTrayName());
+            if (!letter.equals(currentLetter)) {
+                writeLine("ead", "letter", kip.getCatalog() + "/" + letter);
+                currentLetter = letter;
+                currentTray = null;
+            }
+            String nodePath = kip.getCatalog() + "/" + letter;
+            if (StringUtils.isNotBlank(tray)) {
+                nodePath = nodePath + "/" + tray;
+                if (!tray.equals(currentTray)) {
+                    writeLine("ead", "tray", nodePath);
+                    currentTray = tray;
+                }
+            }
+
+            long pages = 0;
+            long bytes = 0;
+            Set<String> targetFolders = new LinkedHashSet<>();
+            for (CopyTask task : tasks) {
+                if (task.getSource().toString().endsWith(".tif")) {
+                    pages++;
+                }
+                bytes += Files.size(task.getSource());
+                targetFolders.add(task.getDestination().getParent().toString());
+            }
+            numberOfCards++;
+            numberOfPages += pages;
+            numberOfBytes += bytes;
+
+            writeLine("card", kip.getCatalog(), String.valueOf(kip.getId()), kip.getLabel(), String.valueOf(kip.getTotalPosition()), letter,
+                    String.valueOf(kip.getLetterPosition()), tray, String.valueOf(kip.getTrayPosition()), String.valueOf(pages),
+                    String.valueOf(bytes), nodePath + "/" + kip.getLabel(), String.join(LIST_SEPARATOR, targetFolders),
+                    String.join(LIST_SEPARATOR, kip.getFiles()), StringUtils.defaultString(kip.getAdminLetterName()),
+                    String.valueOf(kip.getAdminLetterPosition()));
+        }
+
+        private void writeLine(String... values) throws IOException {
+            out.write(String.join(SEPARATOR, values));
+            out.newLine();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeLine("total", String.valueOf(numberOfCards), String.valueOf(numberOfPages), String.valueOf(numberOfBytes));
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Create the records of all cards of a plan
+     *
+     * @param planFile the plan
+     * @param records the list to add the records to
+     * @throws IOException
+     */
+    public static void read(Path planFile, List<Record> records) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(planFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("card" + SEPARATOR)) {
+                    continue;
+                }
+                String[] values = line.split(SEPARATOR, -1);
+                KatzoomImportObject kip = new KatzoomImportObject();
+                kip.setCatalog(values[1]);
+                kip.setId(Integer.parseInt(values[2]));
+                kip.setLabel(values[3]);
+                kip.setTotalPosition(Integer.parseInt(values[4]));
+                kip.setLetterName(values[5]);
+                kip.setLetterPosition(Integer.parseInt(values[6]));
+                kip.setTrayName(values[7]);
+                kip.setTrayPosition(Integer.parseInt(values[8]));
+                kip.setFiles(new ArrayList<>(Arrays.asList(StringUtils.split(values[13], LIST_SEPARATOR))));
+                kip.setAdminLetterName(StringUtils.defaultIfEmpty(values[14], null));
+                kip.setAdminLetterPosition(Integer.parseInt(values[15]));
+
+                Record rec = new Record();
+                rec.setId(values[2]);
+                rec.setData(rec.getId());
+                rec.setObject(kip);
+                records.add(rec);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import lombok.Getter;
+
+/**
+ * Lists the slowest cards and phases of a flight recording with {@link CardImportEvent}s. The recording can be created with the settings in
+ * <code>katzoom-import.jfc</code>.
+ *
+ * <pre>
+ * java -cp plugin-import-katzoom-base.jar de.intranda.goobi.plugins.ImportTraceAnalyzer import.jfr [number of cards]
+ * </pre>
+ */
+public class ImportTraceAnalyzer {
+
+    /**
+     * All phases of a single card
+     */
+    @Getter
+    public static class CardTrace {
+        private final String catalog;
+        private final int cardId;
+        private final String processTitle;
+        private Duration duration = Duration.ZERO;
+        private long bytes;
+        private boolean failed;
+        // duration of each phase, in the order of their first appearance
+        private final Map<String, Duration> phases = new LinkedHashMap<>();
+
+        private CardTrace(String catalog, int cardId, String processTitle) {
+            this.catalog = catalog;
+            this.cardId = cardId;
+            this.processTitle = processTitle;
+        }
+    }
+
+    /**
+     * Figures of a phase over all cards
+     */
+    @Getter
+    public static class PhaseTrace {
+        private final String phase;
+        private int count;
+        private int errors;
+        private Duration duration = Duration.ZERO;
+        private Duration maxDuration = Duration.ZERO;
+        // card with the longest duration in this phase
+        private String slowestCard;
+        private long bytes;
+
+        private PhaseTrace(String phase) {
+            this.phase = phase;
+        }
+
+        public Duration getAverageDuration() {
+            return count == 0 ? Duration.ZERO : duration.dividedBy(count);
+        }
+    }
+
+    private final Map<String, CardTrace> cards = new LinkedHashMap<>();
+    private final Map<String, PhaseTrace> phases = new TreeMap<>();
+
+    /**
+     * Read the import events of a recording
+     *
+     * @param recording the recording file
+     * @return the analyzer with all events of the recording
+     * @throws IOException
+     */
+    public static ImportTraceAnalyzer read(Path recording) throws IOException {
+        ImportTraceAnalyzer analyzer = new ImportTraceAnalyzer();
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                if (CardImportEvent.NAME.equals(event.getEventType().getName())) {
+                    analyzer.add(event);
+                }
+            }
+        }
+        return analyzer;
+    }
+
+    private void add(RecordedEvent event) {
+        String phase = event.getString("phase");
+        Duration duration = event.getDuration();
+        long bytes = event.getLong("bytes");
+        boolean failed = CardImportEvent.ERROR.equals(event.getString("outcome"));
+        String processTitle = event.getString("processTitle");
+
+        PhaseTrace phaseTrace = phases.computeIfAbsent(phase, PhaseTrace::new);
+        phaseTrace.count++;
+        phaseTrace.duration = phaseTrace.duration.plus(duration);
+        phaseTrace.bytes += bytes;
+        if (failed) {
+            phaseTrace.errors++;
+        }
+        if (duration.compareTo(phaseTrace.maxDuration) > 0) {
+            phaseTrace.maxDuration = duration;
+            phaseTrace.slowestCard = processTitle != null ? processTitle : event.getString("catalog");
+        }
+
+        if (processTitle == null) {
+            // the scan of a catalogue does not belong to a card
+            return;
+        }
+        String catalog = event.getString("catalog");
+        CardTrace card = cards.computeIfAbsent(catalog + "/" + processTitle, k -> new CardTrace(catalog, event.getInt("cardId"), processTitle));
+        card.duration = card.duration.plus(duration);
+        card.bytes += bytes;
+        card.failed |= failed;
+        card.phases.merge(phase, duration, Duration::plus);
+    }
+
+    /**
+     * Get the cards with the longest total duration of all phases
+     *
+     * @param limit maximum number of cards
+     * @return the cards, slowest first
+     */
+    public List<CardTrace> getSlowestCards(int limit) {
+        List<CardTrace> sorted = new ArrayList<>(cards.values());
+        sorted.sort(Comparator.comparing(CardTrace::getDuration).reversed());
+        return sorted.subList(0, Math.min(limit, sorted.size()));
+    }
+
+    /**
+     * Get the phases, the one with the longest total duration first
+     *
+     * @return figures of each phase
+     */
+    public List<PhaseTrace> getPhases() {
+        List<PhaseTrace> sorted = new ArrayList<>(phases.values());
+        sorted.sort(Comparator.comparing(PhaseTrace::getDuration).reversed());
+        return sorted;
+    }
+
+    public int getNumberOfCards() {
+        return cards.size();
+    }
+
+    /**
+     * Print the phases and the slowest cards
+     *
+     * @param out the target
+     * @param limit number of cards to print
+     */
+    public void print(PrintStream out, int limit) {
+        out.printf("%d cards%n%n", cards.size());
+        out.printf("%-12s %8s %8s %12s %10s %10s %14s  %s%n", "phase", "count", "errors", "total ms", "avg ms", "max ms", "bytes", "slowest");
+        for (PhaseTrace phase : getPhases()) {
+            out.printf("%-12s %8d %8d %12d %10.1f %10d %14d  %s%n", phase.getPhase(), phase.getCount(), phase.getErrors(),
+                    phase.getDuration().toMillis(), phase.getAverageDuration().toNanos() / 1e6, phase.getMaxDuration().toMillis(), phase.getBytes(),
+                    phase.getSlowestCard());
+        }
+        out.printf("%n%-30s %-20s %10s %14s  %s%n", "card", "catalogue", "total ms", "bytes", "phases");
+        for (CardTrace card : getSlowestCards(limit)) {
+            StringBuilder details = new StringBuilder();
+            for (Map.Entry<String, Duration> entry : card.getPhases().entrySet()) {
+                details.append(entry.getKey()).append('=').append(entry.getValue().toMillis()).append("ms ");
+            }
+            if (card.isFailed()) {
+                details.append("FAILED");
+            }
+            out.printf("%-30s %-20s %10d %14d  %s%n", card.getProcessTitle(), card.getCatalog(), card.getDuration().toMillis(), card.getBytes(),
+                    details.toString().trim());
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: ImportTraceAnalyzer <recording.jfr> [number of cards]"); //NOSONAR
+            System.exit(1);
+        }
+        int limit = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        read(Paths.get(args[0])).print(System.out, limit); //NOSONAR
+    }
+}
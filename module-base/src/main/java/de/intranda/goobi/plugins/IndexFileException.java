@@ -0,0 +1,28 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import lombok.Getter;
+
+/**
+ * A catalogue index file does not have the expected format. The exception contains the location of the problem.
+ */
+@Getter
+public class IndexFileException extends IOException {
+
+    private static final long serialVersionUID = -2017410947117245163L;
+
+    private final transient Path file;
+
+    // line and column, starting with 1
+    private final int line;
+    private final int column;
+
+    public IndexFileException(Path file, int line, int column, String message) {
+        super(file + ":" + line + ":" + column + ": " + message);
+        this.file = file;
+        this.line = line;
+        this.column = column;
+    }
+}
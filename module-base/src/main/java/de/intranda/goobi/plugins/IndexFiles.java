@@ -0,0 +1,541 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Reads the index files of a KatZoom catalogue. The files are parsed byte by byte without reading them into memory first. The results of the
+ * recently used files are cached by path; a file is parsed again, if its modification time or size changed. Format errors are reported as
+ * {@link IndexFileException} with the line and column of the problem.
+ *
+ * <pre>
+ * nka.ind, nka_adm.ind    letters and their first position, followed by the total: A   1B   200 ... Alle   122411
+ * nka.lli                 trays, one per line: order, name, first position, number of cards, separated by tabs or spaces
+ * nka.tix                 a single number
+ * nka-laden.liste         scanned batches, one per line: path, number of images, cumulated number of images, ..., date, time
+ * </pre>
+ */
+public final class IndexFiles {
+
+    // name of the total entry in letter index files
+    private static final String TOTAL = "Alle";
+
+    // number of parsed files kept in the cache, the least recently used file is removed first
+    private static final int CACHE_SIZE = 256;
+
+    private static final Map<Path, CacheEntry> CACHE = Collections.synchronizedMap(new LinkedHashMap<Path, CacheEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, CacheEntry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private static final AtomicInteger PARSED_FILES = new AtomicInteger();
+
+    private IndexFiles() {
+    }
+
+    /**
+     * Read a letter index file, like <code>nka.ind</code> or <code>nka_adm.ind</code>
+     *
+     * @param file the index file
+     * @return the letters
+     * @throws IOException if the file cannot be read or has an invalid format
+     */
+    public static LetterIndexFile readLetterIndex(Path file) throws IOException {
+        return read(file, LetterIndexFile.class);
+    }
+
+    /**
+     * Read a tray index file, like <code>nka.lli</code>
+     *
+     * @param file the index file
+     * @return the trays
+     * @throws IOException if the file cannot be read or has an invalid format
+     */
+    public static TrayIndexFile readTrayIndex(Path file) throws IOException {
+        return read(file, TrayIndexFile.class);
+    }
+
+    /**
+     * Read the value of a <code>.tix</code> file
+     *
+     * @param file the file
+     * @return the number in the file
+     * @throws IOException if the file cannot be read or has an invalid format
+     */
+    public static long readTix(Path file) throws IOException {
+        return read(file, Long.class);
+    }
+
+    /**
+     * Read the list of scanned batches, like <code>nka-laden.liste</code>
+     *
+     * @param file the file
+     * @return the batches
+     * @throws IOException if the file cannot be read or has an invalid format
+     */
+    public static BatchListFile readBatchList(Path file) throws IOException {
+        return read(file, BatchListFile.class);
+    }
+
+    /**
+     * Remove all parsed files from the cache
+     */
+    public static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * @return number of files parsed since the start, cache hits are not counted
+     */
+    public static int getParsedFiles() {
+        return PARSED_FILES.get();
+    }
+
+    private static <T> T read(Path file, Class<T> type) throws IOException {
+        Path key = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        CacheEntry cached = CACHE.get(key);
+        if (cached != null && type.isInstance(cached.value) && cached.modified.equals(attributes.lastModifiedTime())
+                && cached.size == attributes.size()) {
+            return type.cast(cached.value);
+        }
+        Object value;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(key))) {
+            Parser parser = new Parser(file, in);
+            if (type == LetterIndexFile.class) {
+                value = parser.parseLetterIndex();
+            } else if (type == TrayIndexFile.class) {
+                value = parser.parseTrayIndex();
+            } else if (type == BatchListFile.class) {
+                value = parser.parseBatchList();
+            } else {
+                value = parser.parseTix();
+            }
+        }
+        PARSED_FILES.incrementAndGet();
+        CACHE.put(key, new CacheEntry(attributes.lastModifiedTime(), attributes.size(), value));
+        return type.cast(value);
+    }
+
+    @AllArgsConstructor
+    private static class CacheEntry {
+        private final FileTime modified;
+        private final long size;
+        private final Object value;
+    }
+
+    /**
+     * Content of a letter index file. The object is shared, {@link #createLetterIndex()} returns new objects for the position calculation.
+     */
+    public static class LetterIndexFile {
+        private final String[] letters;
+        private final int[] startPositions;
+        @Getter
+        private final int total;
+
+        private LetterIndexFile(List<String> letters, List<Integer> startPositions, int total) {
+            this.letters = letters.toArray(new String[letters.size()]);
+            this.startPositions = new int[startPositions.size()];
+            for (int i = 0; i < this.startPositions.length; i++) {
+                this.startPositions[i] = startPositions.get(i);
+            }
+            this.total = total;
+        }
+
+        public int size() {
+            return letters.length;
+        }
+
+        public String getLetter(int index) {
+            return letters[index];
+        }
+
+        public int getStartPosition(int index) {
+            return startPositions[index];
+        }
+
+        /**
+         * @return the letters, each with the current position set to 1
+         */
+        public List<LetterIndex> createLetterIndex() {
+            List<LetterIndex> index = new ArrayList<>(letters.length);
+            for (int i = 0; i < letters.length; i++) {
+                index.add(new LetterIndex(letters[i], startPositions[i], 1));
+            }
+            return index;
+        }
+
+        /**
+         * Create the letters of an index that counts other units than the cards, e.g. the administrative index counts the images. The start
+         * positions are converted into card positions, so a card belongs to the letter that contains its first unit.
+         *
+         * @param numberOfCards total number of cards, as given by the main index
+         * @return the letters with start positions in cards, each with the current position set to 1
+         */
+        public List<LetterIndex> createLetterIndex(int numberOfCards) {
+            if (total <= 0 || numberOfCards <= 0 || total == numberOfCards) {
+                return createLetterIndex();
+            }
+            List<LetterIndex> index = new ArrayList<>(letters.length);
+            for (int i = 0; i < letters.length; i++) {
+                // the first unit of card p is (p - 1) * total / numberOfCards + 1
+                int start = (int) ((startPositions[i] - 1L) * numberOfCards / total + 1);
+                index.add(new LetterIndex(letters[i], start, 1));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Content of a tray index file. The object is shared, {@link #createTrayIndex()} returns new objects for the position calculation.
+     */
+    public static class TrayIndexFile {
+        private final List<TrayIndex> trays;
+
+        private TrayIndexFile(List<TrayIndex> trays) {
+            this.trays = trays;
+        }
+
+        public int size() {
+            return trays.size();
+        }
+
+        public List<String> getTrayNames() {
+            List<String> names = new ArrayList<>(trays.size());
+            for (TrayIndex tray : trays) {
+                names.add(tray.getTrayName());
+            }
+            return names;
+        }
+
+        /**
+         * @return the trays, each with the current position set to 1
+         */
+        public List<TrayIndex> createTrayIndex() {
+            List<TrayIndex> index = new ArrayList<>(trays.size());
+            for (TrayIndex tray : trays) {
+                index.add(new TrayIndex(tray.getTrayName(), tray.getOrder(), tray.getStartPosition(), tray.getNumberOfEntries(), 1));
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Content of the list of scanned batches
+     */
+    @Getter
+    public static class BatchListFile {
+        // name of each batch, e.g. l000001a
+        private final List<String> batches;
+        // total number of scanned images
+        private final int numberOfImages;
+
+        private BatchListFile(List<String> batches, int numberOfImages) {
+            this.batches = Collections.unmodifiableList(batches);
+            this.numberOfImages = numberOfImages;
+        }
+    }
+
+    /**
+     * reads the bytes of a file and keeps track of the current line and column
+     */
+    private static class Parser {
+
+        private final Path file;
+        private final InputStream in;
+
+        private byte[] buffer = new byte[256];
+
+        private int line = 1;
+        private int column;
+        private int next = -2;
+
+        private Parser(Path file, InputStream in) {
+            this.file = file;
+            this.in = in;
+        }
+
+        private int peek() throws IOException {
+            if (next == -2) {
+                next = in.read();
+            }
+            return next;
+        }
+
+        private int read() throws IOException {
+            int b = peek();
+            next = -2;
+            if (b == '\n') {
+                line++;
+                column = 0;
+            } else if (b != -1) {
+                column++;
+            }
+            return b;
+        }
+
+        private IndexFileException error(String message) {
+            return new IndexFileException(file, line, column + 1, message);
+        }
+
+        private void skipWhitespace() throws IOException {
+            while (isWhitespace(peek())) {
+                read();
+            }
+        }
+
+        private LetterIndexFile parseLetterIndex() throws IOException {
+            List<String> letters = new ArrayList<>();
+            List<Integer> startPositions = new ArrayList<>();
+            int total = -1;
+            skipWhitespace();
+            while (peek() != -1) {
+                int nameLine = line;
+                int nameColumn = column + 1;
+                int length = 0;
+                while (peek() != -1 && !isWhitespace(peek()) && !isDigit(peek())) {
+                    length = append(length, read());
+                }
+                if (length == 0) {
+                    throw error("Number without letter");
+                }
+                String name = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+                skipWhitespace();
+                if (!isDigit(peek())) {
+                    throw new IndexFileException(file, nameLine, nameColumn, "Letter " + name + " has no start position");
+                }
+                int value = readNumber();
+                if (TOTAL.equals(name)) {
+                    total = value;
+                } else {
+                    letters.add(name);
+                    startPositions.add(value);
+                }
+                skipWhitespace();
+            }
+            if (letters.isEmpty()) {
+                throw error("File contains no letter");
+            }
+            return new LetterIndexFile(letters, startPositions, total);
+        }
+
+        private TrayIndexFile parseTrayIndex() throws IOException {
+            List<TrayIndex> trays = new ArrayList<>();
+            while (peek() != -1) {
+                if (peek() == '\n' || peek() == '\r') {
+                    // empty line
+                    read();
+                    continue;
+                }
+                int order = readNumber();
+                separator();
+                // the name can contain spaces, the two numbers are taken from the end of the line
+                int lineNumber = line;
+                int firstColumn = column + 1;
+                int length = 0;
+                while (peek() != -1 && peek() != '\n' && peek() != '\r') {
+                    length = append(length, read());
+                }
+                endOfLine();
+                int end = skipWhitespaceBackwards(length);
+                int numberOfEntriesStart = findTokenStart(end);
+                int numberOfEntries = parseNumber(numberOfEntriesStart, end, lineNumber, firstColumn);
+                end = skipWhitespaceBackwards(numberOfEntriesStart);
+                if (end == numberOfEntriesStart || end == 0) {
+                    throw new IndexFileException(file, lineNumber, firstColumn + numberOfEntriesStart, "Line ends too early");
+                }
+                int startPositionStart = findTokenStart(end);
+                int startPosition = parseNumber(startPositionStart, end, lineNumber, firstColumn);
+                end = skipWhitespaceBackwards(startPositionStart);
+                if (end == 0) {
+                    throw new IndexFileException(file, lineNumber, firstColumn, "Tray without name");
+                }
+                String name = decode(end);
+                trays.add(new TrayIndex(name, order, startPosition, numberOfEntries, 1));
+            }
+            return new TrayIndexFile(trays);
+        }
+
+        /**
+         * read one or more spaces or tabs
+         */
+        private void separator() throws IOException {
+            if (peek() != ' ' && peek() != '\t') {
+                throw error(peek() == -1 || peek() == '\n' || peek() == '\r' ? "Line ends too early" : "Separator expected");
+            }
+            while (peek() == ' ' || peek() == '\t') {
+                read();
+            }
+        }
+
+        private int skipWhitespaceBackwards(int end) {
+            while (end > 0 && isWhitespace(buffer[end - 1])) {
+                end--;
+            }
+            return end;
+        }
+
+        private int findTokenStart(int end) {
+            int start = end;
+            while (start > 0 && !isWhitespace(buffer[start - 1])) {
+                start--;
+            }
+            return start;
+        }
+
+        /**
+         * parse a number of the buffered line, the columns of errors are counted from the given first column
+         */
+        private int parseNumber(int start, int end, int lineNumber, int firstColumn) throws IndexFileException {
+            if (start == end) {
+                throw new IndexFileException(file, lineNumber, firstColumn + start, "Number expected");
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                if (!isDigit(buffer[i])) {
+                    throw new IndexFileException(file, lineNumber, firstColumn + i, "Number expected");
+                }
+                value = value * 10 + buffer[i] - '0';
+                if (value > Integer.MAX_VALUE) {
+                    throw new IndexFileException(file, lineNumber, firstColumn + start, "Number too large");
+                }
+            }
+            return (int) value;
+        }
+
+        private Long parseTix() throws IOException {
+            skipWhitespace();
+            if (!isDigit(peek())) {
+                throw error("Number expected");
+            }
+            long value = 0;
+            while (isDigit(peek())) {
+                value = value * 10 + read() - '0';
+            }
+            skipWhitespace();
+            if (peek() != -1) {
+                throw error("Unexpected character after number");
+            }
+            return value;
+        }
+
+        private BatchListFile parseBatchList() throws IOException {
+            List<String> batches = new ArrayList<>();
+            int numberOfImages = 0;
+            while (peek() != -1) {
+                if (peek() == '\n' || peek() == '\r') {
+                    read();
+                    continue;
+                }
+                // node:/path/to/batch
+                int length = 0;
+                int nameStart = 0;
+                while (peek() != -1 && !isWhitespace(peek())) {
+                    int b = read();
+                    if (b == '/' || b == ':') {
+                        nameStart = length + 1;
+                    }
+                    length = append(length, b);
+                }
+                if (nameStart >= length) {
+                    throw error("Batch without name");
+                }
+                batches.add(new String(buffer, nameStart, length - nameStart, StandardCharsets.ISO_8859_1));
+                expect(' ');
+                readNumber();
+                expect(' ');
+                numberOfImages = readNumber();
+                // remaining columns are not needed
+                while (peek() != -1 && peek() != '\n') {
+                    read();
+                }
+            }
+            return new BatchListFile(batches, numberOfImages);
+        }
+
+        private int readNumber() throws IOException {
+            if (!isDigit(peek())) {
+                throw error(peek() == -1 ? "Number expected, but file ends" : "Number expected");
+            }
+            long value = 0;
+            while (isDigit(peek())) {
+                value = value * 10 + read() - '0';
+                if (value > Integer.MAX_VALUE) {
+                    throw error("Number too large");
+                }
+            }
+            return (int) value;
+        }
+
+        private void expect(char expected) throws IOException {
+            if (peek() != expected) {
+                throw error(peek() == -1 ? "Line ends too early" : "Separator expected");
+            }
+            read();
+        }
+
+        private void endOfLine() throws IOException {
+            while (peek() == ' ' || peek() == '\r') {
+                read();
+            }
+            if (peek() != -1 && peek() != '\n') {
+                throw error("Unexpected character at end of line");
+            }
+            read();
+        }
+
+        private int append(int length, int b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, length * 2);
+            }
+            buffer[length] = (byte) b;
+            return length + 1;
+        }
+
+        /**
+         * the files are written in ISO-8859-1, but some names were added in UTF-8
+         */
+        private String decode(int length) {
+            try {
+                return StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(buffer, 0, length))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        private static boolean isWhitespace(int b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+        }
+
+        private static boolean isDigit(int b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+}
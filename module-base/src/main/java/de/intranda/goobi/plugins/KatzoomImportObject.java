@@ -1,6 +1,9 @@
 package de.intranda.goobi.plugins;
 
-import java.io.Serializable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.List;
 
 import lombok.Getter;
@@ -10,12 +13,16 @@ import lombok.Setter;
 @Getter
 @Setter
 @NoArgsConstructor
-public class KatzoomImportObject implements Serializable {
+public class KatzoomImportObject implements Externalizable {
 
-    private static final long serialVersionUID = 2352609476455769849L;
+    // changed with the switch to Externalizable, objects of the old format are rejected with an InvalidClassException
+    private static final long serialVersionUID = 2352609476455769850L;
 
     private int id;
 
+    // name of the catalogue folder
+    private String catalog;
+
     private String label;
 
     private int totalPosition;
@@ -26,5 +33,19 @@ public class KatzoomImportObject implements Serializable {
     private String trayName;
     private int trayPosition;
 
+    // letter and position in the administrative index, null if the catalogue has none
+    private String adminLetterName;
+    private int adminLetterPosition;
+
     private List<String> files;
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        KatzoomImportObjectCodec.OBJECT_STREAM_CODEC.write(this, out);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        KatzoomImportObjectCodec.OBJECT_STREAM_CODEC.read(this, in);
+    }
 }
@@ -0,0 +1,347 @@
+package de.intranda.goobi.plugins;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary format of a {@link KatzoomImportObject}. Numbers are written as variable length integers, the catalogue, letter and tray names as
+ * well as the folders of the files are stored once in a dictionary and referenced by their ordinal afterwards. The files are written relative to the
+ * catalogue folder and grouped by their name without extension, the extensions of a group are stored as bit mask. The names of the groups are stored
+ * as difference to the label of the card, as they usually only differ in the last digits.
+ *
+ * <pre>
+ * version, flags, id, total position, letter position, tray position, admin letter position
+ * catalogue, letter, tray, admin letter, label
+ * files: root, number of groups, for each group: folder, length of common prefix with label, rest of name, extension mask
+ *   or, if the files cannot be grouped: number of files, for each file: root, relative path
+ * </pre>
+ *
+ * The dictionary belongs to the codec: a file written by a codec can only be read by the same codec or by a new codec that reads the entries in
+ * the order they were written.
+ */
+public class KatzoomImportObjectCodec {
+
+    private static final int VERSION = 1;
+
+    private static final int FLAG_NO_LABEL = 1;
+    private static final int FLAG_NO_FILES = 2;
+    private static final int FLAG_UNGROUPED_FILES = 4;
+
+    // known extensions in alphabetical order, a sorted file list is restored in the same order
+    private static final String[] EXTENSIONS = { "jp2", "jpg", "pdf", "png", "tif", "txt", "xml" };
+
+    /**
+     * Codec for object streams, used by {@link KatzoomImportObject#writeExternal(ObjectOutput)}. The names are written as string objects, the
+     * stream writes identical names only once and references them afterwards. The codec has no state and can be shared.
+     */
+    static final KatzoomImportObjectCodec OBJECT_STREAM_CODEC = new KatzoomImportObjectCodec() {
+
+        @Override
+        protected void writeName(DataOutput out, String name) throws IOException {
+            ((ObjectOutput) out).writeObject(name == null ? null : name.intern());
+        }
+
+        @Override
+        protected String readName(DataInput in) throws IOException {
+            try {
+                return (String) ((ObjectInput) in).readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+        }
+    };
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Write a card
+     *
+     * @param kip the card
+     * @param out the output
+     * @throws IOException
+     */
+    public void write(KatzoomImportObject kip, DataOutput out) throws IOException {
+        List<FileGroup> groups = kip.getFiles() == null ? null : groupFiles(kip.getCatalog(), kip.getFiles());
+        int flags = 0;
+        if (kip.getLabel() == null) {
+            flags |= FLAG_NO_LABEL;
+        }
+        if (kip.getFiles() == null) {
+            flags |= FLAG_NO_FILES;
+        } else if (groups == null) {
+            flags |= FLAG_UNGROUPED_FILES;
+        }
+        out.writeByte(VERSION);
+        out.writeByte(flags);
+        writeVarInt(out, zigZag(kip.getId()));
+        writeVarInt(out, zigZag(kip.getTotalPosition()));
+        writeVarInt(out, zigZag(kip.getLetterPosition()));
+        writeVarInt(out, zigZag(kip.getTrayPosition()));
+        writeVarInt(out, zigZag(kip.getAdminLetterPosition()));
+        writeName(out, kip.getCatalog());
+        writeName(out, kip.getLetterName());
+        writeName(out, kip.getTrayName());
+        writeName(out, kip.getAdminLetterName());
+        if (kip.getLabel() != null) {
+            out.writeUTF(kip.getLabel());
+        }
+
+        if (groups != null) {
+            writeName(out, groups.isEmpty() ? "" : groups.get(0).root);
+            writeVarInt(out, groups.size());
+            for (FileGroup group : groups) {
+                writeName(out, group.folder);
+                int prefix = commonPrefix(kip.getLabel(), group.name);
+                writeVarInt(out, prefix);
+                out.writeUTF(group.name.substring(prefix));
+                writeVarInt(out, group.extensions);
+            }
+        } else if (kip.getFiles() != null) {
+            writeVarInt(out, kip.getFiles().size());
+            for (String file : kip.getFiles()) {
+                String root = getRoot(kip.getCatalog(), file);
+                writeName(out, root);
+                out.writeUTF(file.substring(root.length()));
+            }
+        }
+    }
+
+    /**
+     * Read a card
+     *
+     * @param in the input
+     * @return the card
+     * @throws IOException if the data was not written by this codec
+     */
+    public KatzoomImportObject read(DataInput in) throws IOException {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        read(kip, in);
+        return kip;
+    }
+
+    void read(KatzoomImportObject kip, DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unknown format version " + version);
+        }
+        int flags = in.readUnsignedByte();
+        kip.setId(unZigZag(readVarInt(in)));
+        kip.setTotalPosition(unZigZag(readVarInt(in)));
+        kip.setLetterPosition(unZigZag(readVarInt(in)));
+        kip.setTrayPosition(unZigZag(readVarInt(in)));
+        kip.setAdminLetterPosition(unZigZag(readVarInt(in)));
+        kip.setCatalog(readName(in));
+        kip.setLetterName(readName(in));
+        kip.setTrayName(readName(in));
+        kip.setAdminLetterName(readName(in));
+        kip.setLabel((flags & FLAG_NO_LABEL) != 0 ? null : in.readUTF());
+
+        if ((flags & FLAG_NO_FILES) != 0) {
+            kip.setFiles(null);
+        } else if ((flags & FLAG_UNGROUPED_FILES) != 0) {
+            int numberOfFiles = readVarInt(in);
+            List<String> files = new ArrayList<>(numberOfFiles);
+            for (int i = 0; i < numberOfFiles; i++) {
+                files.add(readName(in) + in.readUTF());
+            }
+            kip.setFiles(files);
+        } else {
+            String root = readName(in);
+            int numberOfGroups = readVarInt(in);
+            List<String> files = new ArrayList<>(numberOfGroups * 2);
+            for (int i = 0; i < numberOfGroups; i++) {
+                String folder = readName(in);
+                int prefix = readVarInt(in);
+                String name = prefix == 0 ? in.readUTF() : kip.getLabel().substring(0, prefix) + in.readUTF();
+                FileGroup group = new FileGroup(root, folder, name);
+                group.extensions = readVarInt(in);
+                group.addFiles(files);
+            }
+            kip.setFiles(files);
+        }
+    }
+
+    /**
+     * Write a name as dictionary reference. The first occurrence of a name contains the name itself, so a reader can build the same dictionary.
+     */
+    protected void writeName(DataOutput out, String name) throws IOException {
+        if (name == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        Integer ordinal = ordinals.get(name);
+        if (ordinal == null) {
+            ordinal = names.size();
+            ordinals.put(name, ordinal);
+            names.add(name);
+            writeVarInt(out, (ordinal + 1) << 1 | 1);
+            out.writeUTF(name);
+        } else {
+            writeVarInt(out, (ordinal + 1) << 1);
+        }
+    }
+
+    protected String readName(DataInput in) throws IOException {
+        int value = readVarInt(in);
+        if (value == 0) {
+            return null;
+        }
+        int ordinal = (value >>> 1) - 1;
+        if ((value & 1) != 0) {
+            String name = in.readUTF();
+            // the dictionary is already complete, if the codec reads its own data
+            if (ordinal == names.size()) {
+                ordinals.put(name, ordinal);
+                names.add(name);
+            } else if (ordinal > names.size()) {
+                throw new IOException("Dictionary entry " + ordinal + " is not in order");
+            }
+            return names.get(ordinal);
+        }
+        if (ordinal >= names.size()) {
+            throw new IOException("Unknown dictionary entry " + ordinal);
+        }
+        return names.get(ordinal);
+    }
+
+    /**
+     * @return number of entries in the dictionary
+     */
+    public int getDictionarySize() {
+        return names.size();
+    }
+
+    /**
+     * Group the files by their name without extension. Returns null, if the files contain an unknown extension, are located in different catalogue
+     * folders or are not in the order the groups would restore them.
+     */
+    private static List<FileGroup> groupFiles(String catalog, List<String> files) {
+        Map<String, FileGroup> groups = new LinkedHashMap<>();
+        String root = files.isEmpty() ? "" : getRoot(catalog, files.get(0));
+        for (String file : files) {
+            if (!root.equals(getRoot(catalog, file))) {
+                return null;
+            }
+            int nameStart = file.lastIndexOf('/') + 1;
+            int extensionStart = file.lastIndexOf('.');
+            if (extensionStart < nameStart) {
+                return null;
+            }
+            int extension = indexOfExtension(file.substring(extensionStart + 1));
+            if (extension < 0) {
+                return null;
+            }
+            String key = file.substring(0, extensionStart);
+            FileGroup group = groups.get(key);
+            if (group == null) {
+                group = new FileGroup(root, file.substring(root.length(), nameStart), file.substring(nameStart, extensionStart));
+                groups.put(key, group);
+            }
+            if ((group.extensions & 1 << extension) != 0) {
+                return null;
+            }
+            group.extensions |= 1 << extension;
+        }
+        List<FileGroup> result = new ArrayList<>(groups.values());
+        List<String> restored = new ArrayList<>(files.size());
+        for (FileGroup group : result) {
+            group.addFiles(restored);
+        }
+        return restored.equals(files) ? result : null;
+    }
+
+    /**
+     * get the path of the catalogue folder including the trailing slash, or an empty string, if the file is not inside of the catalogue
+     */
+    private static String getRoot(String catalog, String file) {
+        if (catalog == null || catalog.isEmpty()) {
+            return "";
+        }
+        String folder = "/" + catalog + "/";
+        int index = file.lastIndexOf(folder);
+        if (index < 0) {
+            return file.startsWith(catalog + "/") ? catalog + "/" : "";
+        }
+        return file.substring(0, index + folder.length());
+    }
+
+    private static int commonPrefix(String label, String name) {
+        if (label == null) {
+            return 0;
+        }
+        int length = Math.min(label.length(), name.length());
+        int prefix = 0;
+        while (prefix < length && label.charAt(prefix) == name.charAt(prefix)) {
+            prefix++;
+        }
+        return prefix;
+    }
+
+    private static int indexOfExtension(String extension) {
+        for (int i = 0; i < EXTENSIONS.length; i++) {
+            if (EXTENSIONS[i].equals(extension)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    private static class FileGroup {
+        private final String root;
+        private final String folder;
+        private final String name;
+        private int extensions;
+
+        private FileGroup(String root, String folder, String name) {
+            this.root = root;
+            this.folder = folder;
+            this.name = name;
+        }
+
+        private void addFiles(List<String> files) {
+            String prefix = root + folder + name + ".";
+            for (int i = 0; i < EXTENSIONS.length; i++) {
+                if ((extensions & 1 << i) != 0) {
+                    files.add(prefix + EXTENSIONS[i]);
+                }
+            }
+        }
+    }
+}
@@ -2,20 +2,23 @@ package de.intranda.goobi.plugins;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.TreeMap;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 import org.apache.commons.configuration.SubnodeConfiguration;
 import org.apache.commons.configuration.XMLConfiguration;
@@ -26,6 +29,7 @@ import org.goobi.interfaces.IArchiveManagementAdministrationPlugin;
 import org.goobi.interfaces.IEadEntry;
 import org.goobi.interfaces.IMetadataField;
 import org.goobi.interfaces.INodeType;
+import org.goobi.production.enums.ImportReturnValue;
 import org.goobi.production.enums.ImportType;
 import org.goobi.production.enums.PluginType;
 import org.goobi.production.importer.DocstructElement;
@@ -37,6 +41,7 @@ import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.properties.ImportProperty;
 
 import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.forms.MassImportForm;
 import de.sub.goobi.helper.NIOFileUtils;
 import de.sub.goobi.helper.StorageProvider;
@@ -98,14 +103,95 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
     private String tray;
     private String trayPosition;
     private String position;
+    private String adminLetter;
+    private String adminLetterPosition;
 
     private String importRootFolder;
     // remove this after plugin changes from basex to database store
     private boolean generateEadFile;
+    // add the cards to the existing ead file instead of creating a new one
+    private boolean incrementalEad;
     private List<String> backsideScans;
+    // number of records processed in a single chunk
+    private int chunkSize;
+    // number of records kept in memory, further records are stored in a temporary file. 0 keeps all records in memory
+    private int recordStoreThreshold;
+    // number of parallel uploads and retries, used when the files are stored in S3
+    private int parallelUploads;
+    private int uploadRetries;
+
+    private transient ParallelFileTransfer fileTransfer;
+    private transient FileCopier fileCopier;
+
+    // adjust the number of parallel file operations to the latency of the storage
+    private boolean adaptiveConcurrency;
+    private int minConcurrency;
+    private int maxConcurrency;
+    private long targetLatency;
+    // current limit and observed latencies of the last run
+    @Getter
+    private transient AdaptiveConcurrencyLimiter ioLimiter;
+
+    // store identical files only once, in a shared blob folder
+    private boolean deduplicate;
+    private String deduplicationFolder;
+    // statistics of the last run
+    @Getter
+    private transient FileDeduplicator deduplicator;
+
+    // check process titles before the import: off, skip (ignore records with existing titles) or reject (abort the whole import)
+    private String processTitleCheck;
+    private transient Set<String> blockedTitles;
+
+    // folder for the generated catalogue indexes, if empty the catalogue folder is used
+    private String indexFolder;
+    // build an inverted index over the ocr text of each card
+    private boolean ocrIndex;
+    // persist letter, tray and positions of all cards
+    private boolean positionIndex;
+    // only write a plan of the import, without creating any process
+    private boolean dryRun;
+    // create the records from an existing plan instead of scanning the catalogue
+    private boolean usePlan;
+
+    // split a catalogue into shards that are imported by several nodes: off, tray or range
+    private String shardMode;
+    // number of positions of a shard in range mode
+    private int shardSize;
+    // folder shared by all nodes, contains the claims and results of the shards
+    private String shardFolder;
+    // seconds after which the claim of a node is taken over by another node
+    private long shardTimeout;
+    private String shardNode;
+    private transient Map<String, ShardCoordinator> shardCoordinators;
+    // cards of the current chunk, in the same order, recorded in the shard results after the chunk was handed over
+    private transient List<KatzoomImportObject> shardCards = new ArrayList<>();
+
+    // write the mets files to temporary files and rename them after a synced batch
+    private boolean durableMetsWrite;
+    private int metsSyncBatch;
+    private transient AtomicFileWriter metsWriter;
+    // cards of the current chunk whose mets files are written, but not yet committed
+    private transient Map<Path, KatzoomImportObject> uncommittedCards = new HashMap<>();
+
+    // copy: copy all files during the import, deferred: copy media and pdf files after the processes are created
+    private String derivativeMode;
+    private int derivativeThreads;
+    private long derivativeRetryDelay;
+    private int derivativeRetries;
+    private transient Map<String, DerivativeStage.ManifestWriter> derivativeManifests = new HashMap<>();
+    // shared by all imports, the copies continue after the import is finished
+    private static DerivativeStage derivativeStage;
+    // stops the stage when the application is shut down
+    private static Thread derivativeStageShutdownHook;
+
+    private transient Map<String, OcrIndex> ocrIndexes = new HashMap<>();
+
+    // positions of the imported cards of each catalogue in the current run
+    private transient Map<String, BitSet> importedPositions = new HashMap<>();
+    // number of failed cards of each catalogue in the current run
+    private transient Map<String, int[]> failedCounts = new HashMap<>();
 
-    private static Pattern letterIndexFilePattern = Pattern.compile("([A-Z]\\/?J?)\\s+(\\d+)");
-    private static Pattern trayIndexFilePattern = Pattern.compile("(\\d+)\\s(\\w+)\\s(\\d+)\\s(\\d+)");
 
     @Getter
     private IArchiveManagementAdministrationPlugin archivePlugin;
@@ -137,11 +223,49 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
             importRootFolder = myconfig.getString("/importRootFolder", "");
 
             generateEadFile = myconfig.getBoolean("/generateEadFile", true);
+            incrementalEad = myconfig.getBoolean("/incrementalEad", false);
 
             collection = myconfig.getString("/collection", "");
 
             backsideScans = Arrays.asList(myconfig.getStringArray("/backsideScan"));
 
+            chunkSize = myconfig.getInt("/chunkSize", 100);
+            recordStoreThreshold = myconfig.getInt("/recordStoreThreshold", 0);
+            parallelUploads = myconfig.getInt("/parallelUploads", 8);
+            uploadRetries = myconfig.getInt("/uploadRetries", 3);
+            adaptiveConcurrency = myconfig.getBoolean("/adaptiveConcurrency", false);
+            minConcurrency = myconfig.getInt("/minConcurrency", 1);
+            maxConcurrency = myconfig.getInt("/maxConcurrency", 8);
+            targetLatency = myconfig.getLong("/targetLatency", 0);
+            deduplicate = myconfig.getBoolean("/deduplicate", false);
+            deduplicationFolder = myconfig.getString("/deduplicationFolder", "");
+
+            processTitleCheck = myconfig.getString("/processTitleCheck", "off");
+
+            indexFolder = myconfig.getString("/indexFolder", "");
+            ocrIndex = myconfig.getBoolean("/ocrIndex", false);
+            positionIndex = myconfig.getBoolean("/positionIndex", false);
+            dryRun = myconfig.getBoolean("/dryRun", false);
+            usePlan = myconfig.getBoolean("/usePlan", false);
+
+            shardMode = myconfig.getString("/shardMode", "off");
+            shardSize = myconfig.getInt("/shardSize", 10000);
+            shardFolder = myconfig.getString("/shardFolder", "");
+            shardTimeout = myconfig.getLong("/shardTimeout", 3600);
+            durableMetsWrite = myconfig.getBoolean("/durableMetsWrite", false);
+            metsSyncBatch = myconfig.getInt("/metsSyncBatch", 50);
+
+            derivativeMode = myconfig.getString("/derivativeMode", "copy");
+            derivativeThreads = myconfig.getInt("/derivativeThreads", 2);
+            derivativeRetryDelay = myconfig.getLong("/derivativeRetryDelay", 60);
+            derivativeRetries = myconfig.getInt("/derivativeRetries", 60);
+
+            shardNode = myconfig.getString("/shardNode", "");
+            if (StringUtils.isBlank(shardNode)) {
+                // process id and host name
+                shardNode = ManagementFactory.getRuntimeMXBean().getName();
+            }
+
             doctype = myconfig.getString("/doctype");
             folderStructure = myconfig.getString("/folderStructure");
             letter = myconfig.getString("/letter");
@@ -149,6 +273,8 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
             tray = myconfig.getString("/tray");
             trayPosition = myconfig.getString("/trayPosition");
             position = myconfig.getString("/position");
+            adminLetter = myconfig.getString("/adminLetter", "");
+            adminLetterPosition = myconfig.getString("/adminLetterPosition", "");
 
         }
     }
@@ -166,9 +292,134 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
      */
     @Override
     public List<ImportObject> generateFiles(List<Record> records) {
-
         readConfig();
         List<ImportObject> answer = new ArrayList<>();
+        try {
+            generateFiles(records, 0, answer::addAll, false);
+        } finally {
+            closeRecords(records);
+        }
+        return answer;
+    }
+
+    /**
+     * Create the Goobi processes in chunks. The size of a chunk is taken from the configuration. Each finished chunk is handed over to the consumer,
+     * afterwards the card data of the processed records is released. This way only a single chunk is kept in memory, regardless of the catalogue size.
+     * 
+     * @param records the records to import
+     * @param consumer receives the import objects of each finished chunk
+     */
+    public void generateFiles(List<Record> records, Consumer<List<ImportObject>> consumer) {
+        readConfig();
+        try {
+            generateFiles(records, chunkSize, consumer, true);
+        } finally {
+            closeRecords(records);
+        }
+    }
+
+    /**
+     * Remove the temporary file of the records, they are not needed after the import
+     */
+    private void closeRecords(List<Record> records) {
+        if (records instanceof RecordStore) {
+            ((RecordStore) records).close();
+        }
+    }
+
+    private void generateFiles(List<Record> records, int currentChunkSize, Consumer<List<ImportObject>> consumer, boolean releaseRecords) {
+        // check the titles before any thread pool or writer is created
+        blockedTitles = null;
+        if ("skip".equals(processTitleCheck) || "reject".equals(processTitleCheck)) {
+            ProcessTitleCheck check = checkProcessTitles(records);
+            if (check != null) {
+                if ("reject".equals(processTitleCheck) && (!check.getExistingTitles().isEmpty() || !check.getDuplicateTitles().isEmpty())) {
+                    // do not start the import at all
+                    List<ImportObject> rejected = new ArrayList<>(records.size());
+                    for (Record rec : records) {
+                        ImportObject io = new ImportObject();
+                        io.setProcessTitle(((KatzoomImportObject) rec.getObject()).getLabel());
+                        io.setImportReturnValue(ImportReturnValue.DataAllreadyExists);
+                        io.setErrorMessage("Import rejected, " + check.getExistingTitles().size() + " process titles exist already and "
+                                + check.getDuplicateTitles().size() + " titles are used more than once.");
+                        rejected.add(io);
+                    }
+                    consumer.accept(rejected);
+                    return;
+                }
+                blockedTitles = check.getExistingTitles();
+            }
+        }
+        boolean useS3 = ConfigurationHelper.getInstance().useS3();
+        deduplicator = null;
+        fileCopier = StorageProvider.getInstance()::copyFile;
+        if (deduplicate) {
+            if (useS3 || StringUtils.isBlank(deduplicationFolder)) {
+                log.warn("Deduplication requires a local deduplication folder, files are copied without deduplication");
+            } else {
+                deduplicator = new FileDeduplicator(Paths.get(deduplicationFolder));
+                fileCopier = deduplicator;
+            }
+        }
+        ioLimiter = null;
+        if (adaptiveConcurrency) {
+            ioLimiter = new AdaptiveConcurrencyLimiter(minConcurrency, maxConcurrency, targetLatency);
+            AdaptiveConcurrencyLimiter limiter = ioLimiter;
+            FileCopier copier = fileCopier;
+            fileCopier = (source, destination) -> limiter.execute(() -> copier.copy(source, destination));
+        }
+        if (ioLimiter != null) {
+            // the limiter decides how many of the threads can work at the same time
+            fileTransfer = new ParallelFileTransfer(maxConcurrency, uploadRetries, 1000, fileCopier);
+        } else if (useS3) {
+            // each copy is a blocking upload, transfer all files of a card in parallel
+            fileTransfer = new ParallelFileTransfer(parallelUploads, uploadRetries, 1000, fileCopier);
+        }
+        metsWriter = null;
+        if (durableMetsWrite) {
+            try {
+                // incomplete files of a previous run that crashed
+                // files of imports that are running at the same time were written after the start of this process
+                int removed = AtomicFileWriter.removeTemporaryFiles(Paths.get(importFolder), ManagementFactory.getRuntimeMXBean().getStartTime());
+                if (removed > 0) {
+                    log.warn("Removed {} incomplete mets files from {}", removed, importFolder);
+                }
+            } catch (IOException e) {
+                log.error(e);
+            }
+            metsWriter = new AtomicFileWriter(metsSyncBatch);
+        }
+        shardCoordinators = null;
+        shardCards.clear();
+        if (isShardImport()) {
+            shardCoordinators = createShardCoordinators(records);
+        }
+        try {
+            generateProcesses(records, currentChunkSize, consumer, releaseRecords);
+            if (shardCoordinators != null) {
+                finishShards();
+            }
+        } finally {
+            if (fileTransfer != null) {
+                fileTransfer.close();
+                fileTransfer = null;
+            }
+            saveOcrIndexes();
+            saveImportStatistics();
+            startDerivativeStage();
+            if (ioLimiter != null) {
+                log.info("I/O concurrency: limit {}, average latency {} ms, min {} ms, max {} ms", ioLimiter.getLimit(),
+                        ioLimiter.getLongTermLatency(), ioLimiter.getMinLatency(), ioLimiter.getMaxLatency());
+            }
+            if (deduplicator != null) {
+                log.info("Deduplication: {} unique files, {} duplicates, {} bytes saved", deduplicator.getUniqueFiles(),
+                        deduplicator.getDuplicateFiles(), deduplicator.getSavedBytes());
+            }
+        }
+    }
+
+    private void generateProcesses(List<Record> records, int currentChunkSize, Consumer<List<ImportObject>> consumer, boolean releaseRecords) {
+        List<ImportObject> chunk = new ArrayList<>();
 
         // some general preparations
         DocStructType physicalType = prefs.getDocStrctTypeByName("BoundBook");
@@ -185,12 +436,26 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
         MetadataType trayType = prefs.getMetadataTypeByName(tray);
         MetadataType trayPositionType = prefs.getMetadataTypeByName(trayPosition);
         MetadataType positionType = prefs.getMetadataTypeByName(position);
+        MetadataType adminLetterType = StringUtils.isBlank(adminLetter) ? null : prefs.getMetadataTypeByName(adminLetter);
+        MetadataType adminLetterPositionType = StringUtils.isBlank(adminLetterPosition) ? null : prefs.getMetadataTypeByName(adminLetterPosition);
 
+        Set<String> titlesInBatch = new HashSet<>();
         for (Record rec : records) {
             ImportObject io = new ImportObject();
 
             KatzoomImportObject kip = (KatzoomImportObject) rec.getObject();
 
+            ShardCoordinator coordinator = shardCoordinators == null ? null : shardCoordinators.get(kip.getCatalog());
+            if (coordinator != null && coordinator.isNewShard(kip) && !chunk.isEmpty()) {
+                // the previous shard is finished with the next card, its imported cards must be recorded before
+                handOver(chunk, consumer);
+                chunk = new ArrayList<>();
+            }
+            if (coordinator != null && !coordinator.accept(kip)) {
+                // the card belongs to a shard of another node
+                continue;
+            }
+
             List<String> files = kip.getFiles();
             Collections.sort(files);
             String filename = files.get(0);
@@ -200,11 +465,20 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
 
             io.setMetsFilename(importFolder + "/" + processName + ".xml");
 
+            if (blockedTitles != null && (blockedTitles.contains(processName) || !titlesInBatch.add(processName))) {
+                // process exists already or was created from a previous record of this batch
+                io.setImportReturnValue(ImportReturnValue.DataAllreadyExists);
+                io.setErrorMessage("A process with the title " + processName + " exists already.");
+                chunk = addToChunk(chunk, io, rec, currentChunkSize, consumer, releaseRecords);
+                continue;
+            }
+
             // folder structure
             Path folder = Paths.get(filename).getParent();
             String last = folder.getFileName().toString();
             String prev = folder.getParent().getFileName().toString();
             String third = folder.getParent().getParent().getFileName().toString();
+            CardImportEvent event = CardImportEvent.start(CardImportEvent.METS_BUILD, kip);
             try {
                 Fileformat fileformat = new MetsMods(prefs);
                 DigitalDocument dd = new DigitalDocument();
@@ -249,13 +523,38 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
                 pos.setValue(String.valueOf(kip.getTotalPosition()));
                 logical.addMetadata(pos);
 
+                // letter of the administrative index
+                if (kip.getAdminLetterName() != null && adminLetterType != null) {
+                    Metadata adminLetterMd = new Metadata(adminLetterType);
+                    adminLetterMd.setValue(kip.getAdminLetterName());
+                    logical.addMetadata(adminLetterMd);
+                    if (adminLetterPositionType != null) {
+                        Metadata adminLetterPositionMd = new Metadata(adminLetterPositionType);
+                        adminLetterPositionMd.setValue(String.valueOf(kip.getAdminLetterPosition()));
+                        logical.addMetadata(adminLetterPositionMd);
+                    }
+                }
+
                 DocStruct physical = dd.createDocStruct(physicalType);
                 dd.setPhysicalDocStruct(physical);
                 Metadata path = new Metadata(pathimagefilesType);
                 path.setValue(processName);
                 physical.addMetadata(path);
 
-                Path masterFolder = copyFiles(files, processName);
+                event.finish(CardImportEvent.OK);
+                // the copied files have their own events
+                event = null;
+                Path masterFolder = copyFiles(kip, files, processName);
+                event = CardImportEvent.start(CardImportEvent.METS_BUILD, kip);
+
+                if (ocrIndex) {
+                    try {
+                        indexOcrText(kip, files);
+                    } catch (IOException e) {
+                        // the search index is optional, the card is imported anyway
+                        log.error("Cannot index OCR text of {}: {}", kip.getLabel(), e.getMessage());
+                    }
+                }
 
                 List<Path> filesInMaster = StorageProvider.getInstance().listFiles(masterFolder.toString());
                 int currentPhysicalOrder = 0;
@@ -279,16 +578,225 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
                     logical.addReferenceTo(page, "logical_physical");
                 }
                 // add metadata
-
-                fileformat.write(io.getMetsFilename());
+                event.finish(CardImportEvent.OK);
+
+                event = CardImportEvent.start(CardImportEvent.METS_WRITE, kip);
+                if (metsWriter != null) {
+                    try {
+                        metsWriter.write(Paths.get(io.getMetsFilename()), fileformat::write);
+                    } catch (IOException e) {
+                        // a failed batch commit also loses the files of the earlier cards in the batch
+                        markUncommittedCards(chunk, e);
+                        throw e;
+                    }
+                    uncommittedCards.put(Paths.get(io.getMetsFilename()), kip);
+                } else {
+                    fileformat.write(io.getMetsFilename());
+                }
+                event.finish(CardImportEvent.OK);
+                event = null;
             } catch (UGHException | IOException e) {
+                if (event != null) {
+                    event.finish(CardImportEvent.ERROR);
+                }
                 log.error(e);
+                io.setImportReturnValue(ImportReturnValue.WriteError);
+                io.setErrorMessage(e.getMessage());
             }
+            BitSet imported = importedPositions.computeIfAbsent(kip.getCatalog(), k -> new BitSet());
+            int[] failed = failedCounts.computeIfAbsent(kip.getCatalog(), k -> new int[1]);
+            if (io.getImportReturnValue() == ImportReturnValue.ExportFinished) {
+                imported.set(kip.getTotalPosition());
+            } else {
+                failed[0]++;
+            }
+
+            chunk = addToChunk(chunk, io, rec, currentChunkSize, consumer, releaseRecords);
+        }
+        if (!chunk.isEmpty()) {
+            handOver(chunk, consumer);
+        }
+    }
 
-            answer.add(io);
+    private void traceCopy(KatzoomImportObject kip, Path source, Path destination) throws IOException {
+        String derivative = destination.getParent().getFileName().toString();
+        if (derivative.startsWith(kip.getLabel())) {
+            // master, media, txt or pdf
+            derivative = StringUtils.removeStart(derivative.substring(kip.getLabel().length()), "_");
+        }
+        CardImportEvent event = CardImportEvent.startCopy(kip, derivative);
+        try {
+            fileCopier.copy(source, destination);
+        } catch (IOException e) {
+            event.finish(CardImportEvent.ERROR);
+            throw e;
         }
+        event.finish(CardImportEvent.OK, event.isEnabled() ? Files.size(source) : 0);
+    }
 
-        return answer;
+    /**
+     * Make the mets files of a chunk visible before the chunk is handed over. Cards whose files could not be committed are marked as failed.
+     */
+    private void commitMetsFiles(List<ImportObject> chunk) {
+        if (metsWriter == null) {
+            return;
+        }
+        try {
+            metsWriter.commit();
+        } catch (IOException e) {
+            log.error(e);
+            markUncommittedCards(chunk, e);
+        }
+        uncommittedCards.clear();
+    }
+
+    /**
+     * Mark the cards of a chunk whose mets files were lost by a failed commit as failed. An existing file of an earlier import is not replaced in
+     * this case, so the file list of the writer is used instead of checking the files.
+     */
+    private void markUncommittedCards(List<ImportObject> chunk, IOException e) {
+        Set<Path> failedFiles = new HashSet<>(metsWriter.getFailedFiles());
+        for (ImportObject io : chunk) {
+            Path metsFile = Paths.get(io.getMetsFilename());
+            if (io.getImportReturnValue() == ImportReturnValue.ExportFinished && failedFiles.contains(metsFile)) {
+                io.setImportReturnValue(ImportReturnValue.WriteError);
+                io.setErrorMessage(e.getMessage());
+                KatzoomImportObject kip = uncommittedCards.remove(metsFile);
+                if (kip != null) {
+                    importedPositions.get(kip.getCatalog()).clear(kip.getTotalPosition());
+                    failedCounts.get(kip.getCatalog())[0]++;
+                }
+            }
+        }
+    }
+
+    private boolean isShardImport() {
+        if (StringUtils.isBlank(shardMode) || "off".equals(shardMode)) {
+            return false;
+        }
+        if (StringUtils.isBlank(shardFolder)) {
+            log.warn("Sharded import requires a shard folder, all cards are imported by this node");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Split each catalogue into shards or use the shards of the nodes that started earlier
+     */
+    private Map<String, ShardCoordinator> createShardCoordinators(List<Record> records) {
+        Map<String, ShardCoordinator> coordinators = new HashMap<>();
+        int first = 0;
+        for (int i = 1; i <= records.size(); i++) {
+            String catalog = ((KatzoomImportObject) records.get(first).getObject()).getCatalog();
+            if (i < records.size() && catalog.equals(((KatzoomImportObject) records.get(i).getObject()).getCatalog())) {
+                continue;
+            }
+            List<KatzoomImportObject> cards = asCards(records.subList(first, i));
+            ShardCoordinator coordinator = new ShardCoordinator(Paths.get(shardFolder, catalog), shardNode, shardTimeout * 1000);
+            try {
+                coordinator.init("tray".equals(shardMode) ? ShardCoordinator.planTrayShards(cards, shardSize)
+                        : ShardCoordinator.planRangeShards(cards, shardSize));
+                log.info("Catalogue {} is split into {} shards, node {} imports the free ones", catalog, coordinator.getShards().size(), shardNode);
+                coordinators.put(catalog, coordinator);
+            } catch (IOException e) {
+                log.error(e);
+            }
+            first = i;
+        }
+        return coordinators;
+    }
+
+    /**
+     * Finish the last shard of each catalogue. If all shards of a catalogue are finished, the ead file is created from the results of all nodes.
+     */
+    private void finishShards() {
+        for (Entry<String, ShardCoordinator> entry : shardCoordinators.entrySet()) {
+            ShardCoordinator coordinator = entry.getValue();
+            coordinator.finish();
+            if (!generateEadFile || !coordinator.isComplete() || !coordinator.claimMerge()) {
+                continue;
+            }
+            List<Record> merged = recordStoreThreshold > 0 ? new RecordStore(recordStoreThreshold) : new ArrayList<>();
+            try {
+                coordinator.readResults(kip -> {
+                    Record rec = new Record();
+                    rec.setId(String.valueOf(kip.getId()));
+                    rec.setData(rec.getId());
+                    rec.setObject(kip);
+                    merged.add(rec);
+                });
+                generateEadStructure(merged, entry.getKey());
+            } catch (IOException e) {
+                log.error(e);
+            } finally {
+                closeRecords(merged);
+            }
+        }
+    }
+
+    private List<ImportObject> addToChunk(List<ImportObject> chunk, ImportObject io, Record rec, int currentChunkSize,
+            Consumer<List<ImportObject>> consumer, boolean releaseRecords) {
+        chunk.add(io);
+        if (shardCoordinators != null) {
+            // the shard result needs the complete card
+            shardCards.add((KatzoomImportObject) rec.getObject());
+        } else if (releaseRecords) {
+            // card data is not needed anymore, allow it to be garbage collected
+            ((KatzoomImportObject) rec.getObject()).setFiles(null);
+        }
+        if (releaseRecords) {
+            rec.setObject(null);
+        }
+        if (currentChunkSize > 0 && chunk.size() >= currentChunkSize) {
+            handOver(chunk, consumer);
+            return new ArrayList<>();
+        }
+        return chunk;
+    }
+
+    private void handOver(List<ImportObject> chunk, Consumer<List<ImportObject>> consumer) {
+        commitMetsFiles(chunk);
+        consumer.accept(chunk);
+        if (shardCoordinators != null) {
+            completeShardCards(chunk);
+        }
+    }
+
+    /**
+     * Record the imported cards of a handed over chunk in the results of their shards. Cards of existing processes are recorded as well, they were
+     * imported by an earlier run or by a node that gave up the shard.
+     */
+    private void completeShardCards(List<ImportObject> chunk) {
+        for (int i = 0; i < chunk.size(); i++) {
+            ImportReturnValue value = chunk.get(i).getImportReturnValue();
+            if (value == ImportReturnValue.ExportFinished || value == ImportReturnValue.DataAllreadyExists) {
+                KatzoomImportObject kip = shardCards.get(i);
+                shardCoordinators.get(kip.getCatalog()).completed(kip);
+            }
+        }
+        shardCards.clear();
+    }
+
+    /**
+     * Check the titles of all records against the existing processes and within the batch. Returns null, if the existing titles cannot be read.
+     */
+    private ProcessTitleCheck checkProcessTitles(List<Record> records) {
+        List<String> titles = new ArrayList<>(records.size());
+        for (Record rec : records) {
+            titles.add(((KatzoomImportObject) rec.getObject()).getLabel());
+        }
+        ProcessTitleCheck check = new ProcessTitleCheck(new DatabaseTitleSource(), 0.01);
+        try {
+            if (!check.check(titles)) {
+                log.warn("{} process titles already exist, {} titles are used more than once", check.getExistingTitles().size(),
+                        check.getDuplicateTitles().size());
+            }
+        } catch (IOException e) {
+            log.error(e);
+            return null;
+        }
+        return check;
     }
 
     public void generateEadStructure(List<Record> records, String filename) {
@@ -300,13 +808,16 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
             return;
         }
 
-        // open archive plugin, create new ead file
+        // open archive plugin, create new ead file or open the existing one
 
         IPlugin ia = PluginLoader.getPluginByTitle(PluginType.Administration, "intranda_administration_archive_management");
         archivePlugin = (IArchiveManagementAdministrationPlugin) ia;
 
-        archivePlugin.setDatabaseName(filename);
-        archivePlugin.createNewDatabase();
+        boolean update = incrementalEad && openExistingDatabase(filename);
+        if (!update) {
+            archivePlugin.setDatabaseName(filename);
+            archivePlugin.createNewDatabase();
+        }
         INodeType fileType = null;
         INodeType folderType = null;
 
@@ -319,132 +830,322 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
         }
 
         IEadEntry rootEntry = archivePlugin.getRootElement();
-        rootEntry.setNodeType(folderType);
-        for (IMetadataField meta : rootEntry.getIdentityStatementAreaList()) {
-            if ("unittitle".equals(meta.getName())) {
-                if (!meta.isFilled()) {
-                    meta.addValue();
-                }
-                meta.getValues().get(0).setValue(filename);
-            }
+        if (!update) {
+            rootEntry.setNodeType(folderType);
+            setUnitTitle(rootEntry, filename, false);
         }
 
+        // letter, tray and card nodes by their label
+        EadNodeIndex<IEadEntry> nodeIndex = new EadNodeIndex<>(IEadEntry::getSubEntryList, IEadEntry::getLabel);
+        int addedCards = 0;
+        int updatedCards = 0;
         for (Record rec : records) {
             KatzoomImportObject kip = (KatzoomImportObject) rec.getObject();
-            // find subnode in root for current letter
-            IEadEntry letterNode = null;
-            IEadEntry trayNode = null;
-            for (IEadEntry e : rootEntry.getSubEntryList()) {
-                if (e.getLabel().equals(kip.getLetterName())) {
-                    letterNode = e;
-                    break;
-                }
-            }
-            // if subnode does not exist, create it
-            if (letterNode == null) {
-                // select root entry
-                archivePlugin.setSelectedEntry(rootEntry);
-                // create new node
-                archivePlugin.addNode();
-                letterNode = archivePlugin.getSelectedEntry();
-                letterNode.setNodeType(folderType);
-
-                for (IMetadataField meta : letterNode.getIdentityStatementAreaList()) {
-                    if ("unittitle".equals(meta.getName())) {
-                        if (!meta.isFilled()) {
-                            meta.addValue();
-                        }
-                        meta.getValues().get(0).setValue(kip.getLetterName());
-                    }
-                }
-
-            }
+            CardImportEvent event = CardImportEvent.start(CardImportEvent.EAD, kip);
+            // find subnode in root for current letter, create it if it does not exist
+            IEadEntry parentNode = getFolderNode(nodeIndex, rootEntry, kip.getLetterName(), folderType);
             // if current data uses trays
             if (StringUtils.isNotBlank(kip.getTrayName())) {
-                // find tray node in letter sub nodes
-                for (IEadEntry e : letterNode.getSubEntryList()) {
-                    if (e.getLabel().equals(kip.getTrayName())) {
-                        trayNode = e;
-                        break;
-                    }
-                }
-                // if subnode does not exist, create it
-                if (trayNode == null) {
-                    // select root entry
-                    archivePlugin.setSelectedEntry(letterNode);
-                    // create new node
-                    archivePlugin.addNode();
-                    trayNode = archivePlugin.getSelectedEntry();
-                    trayNode.setNodeType(folderType);
-
-                    for (IMetadataField meta : trayNode.getIdentityStatementAreaList()) {
-                        if ("unittitle".equals(meta.getName())) {
-                            if (!meta.isFilled()) {
-                                meta.addValue();
-                            }
-                            meta.getValues().get(0).setValue(kip.getTrayName());
-                        }
-                    }
-                }
+                parentNode = getFolderNode(nodeIndex, parentNode, kip.getTrayName(), folderType);
             }
-            // create new node within subnode
 
-            if (trayNode != null) {
-                archivePlugin.setSelectedEntry(trayNode);
+            // update an existing card or create new node within subnode
+            IEadEntry node = update ? nodeIndex.find(parentNode, kip.getLabel()) : null;
+            if (node == null) {
+                archivePlugin.setSelectedEntry(parentNode);
+                archivePlugin.addNode();
+                node = archivePlugin.getSelectedEntry();
+                nodeIndex.add(parentNode, kip.getLabel(), node);
+                addedCards++;
             } else {
-                archivePlugin.setSelectedEntry(letterNode);
+                updatedCards++;
             }
-            archivePlugin.addNode();
-            IEadEntry node = archivePlugin.getSelectedEntry();
             node.setNodeType(fileType);
             node.setGoobiProcessTitle(kip.getLabel());
+            setUnitTitle(node, kip.getLabel(), true);
+            event.finish(CardImportEvent.OK);
+        }
+        if (update) {
+            log.info("Ead file {}: {} cards added, {} cards updated", filename, addedCards, updatedCards);
+        }
+        archivePlugin.setSelectedEntry(rootEntry);
+    }
 
-            for (IMetadataField meta : node.getIdentityStatementAreaList()) {
-                if ("unittitle".equals(meta.getName()) || "unitid".equals(meta.getName())) {
-                    if (!meta.isFilled()) {
-                        meta.addValue();
-                    }
-                    meta.getValues().get(0).setValue(kip.getLabel());
+    /**
+     * Open the database of an earlier import. Returns false, if the database does not exist yet. The archive management plugin can only load the
+     * complete tree, so this reads the whole database; only the search for existing nodes is limited to the letters and trays of the imported
+     * cards.
+     */
+    private boolean openExistingDatabase(String filename) {
+        for (String database : archivePlugin.getPossibleDatabases()) {
+            // the entries can contain the name of the ead file after the database name
+            if (database.equals(filename) || database.startsWith(filename + " - ")) {
+                archivePlugin.setSelectedDatabase(database);
+                archivePlugin.loadSelectedDatabase();
+                return archivePlugin.getRootElement() != null;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the letter or tray node with the given name, create it if it does not exist
+     */
+    private IEadEntry getFolderNode(EadNodeIndex<IEadEntry> nodeIndex, IEadEntry parent, String name, INodeType folderType) {
+        IEadEntry node = nodeIndex.find(parent, name);
+        if (node == null) {
+            // select parent entry
+            archivePlugin.setSelectedEntry(parent);
+            // create new node
+            archivePlugin.addNode();
+            node = archivePlugin.getSelectedEntry();
+            node.setNodeType(folderType);
+            setUnitTitle(node, name, false);
+            nodeIndex.add(parent, name, node);
+        }
+        return node;
+    }
+
+    /**
+     * Set the title of a node, optionally the identifier too
+     */
+    private void setUnitTitle(IEadEntry node, String value, boolean setUnitId) {
+        for (IMetadataField meta : node.getIdentityStatementAreaList()) {
+            if ("unittitle".equals(meta.getName()) || (setUnitId && "unitid".equals(meta.getName()))) {
+                if (!meta.isFilled()) {
+                    meta.addValue();
                 }
+                meta.getValues().get(0).setValue(value);
             }
         }
-        archivePlugin.setSelectedEntry(rootEntry);
     }
 
-    private Path copyFiles(List<String> files, String processName) throws IOException {
+    private Path copyFiles(KatzoomImportObject kip, List<String> files, String processName) throws IOException {
         // create folder structure
 
         Path processFolder = Paths.get(importFolder, processName);
-        Path mediaFolder = Paths.get(processFolder.toString(), "images", processName + "_media");
-        Path masterFolder = Paths.get(processFolder.toString(), "images", processName + "_master");
+        List<Path> targetFolders = getTargetFolders(processFolder, processName);
+        for (Path folder : targetFolders) {
+            StorageProvider.getInstance().createDirectories(folder);
+        }
 
+        List<CopyTask> tasks = planCopyTasks(files, targetFolders);
+        if ("deferred".equals(derivativeMode)) {
+            tasks = deferDerivatives(kip, tasks, processFolder, targetFolders);
+        }
+
+        // the copy events of the transfer threads belong to this card
+        FileCopier cardCopier = (source, destination) -> traceCopy(kip, source, destination);
+        if (fileTransfer != null) {
+            // upload all derivatives of the card at the same time
+            fileTransfer.transfer(tasks, cardCopier);
+        } else {
+            for (CopyTask task : tasks) {
+                cardCopier.copy(task.getSource(), task.getDestination());
+            }
+        }
+        return targetFolders.get(0);
+    }
+
+    /**
+     * Write the media and pdf files into the manifest of the catalogue, return the remaining tasks
+     */
+    private List<CopyTask> deferDerivatives(KatzoomImportObject kip, List<CopyTask> tasks, Path processFolder, List<Path> targetFolders)
+            throws IOException {
+        DerivativeStage.ManifestWriter manifest = derivativeManifests.get(kip.getCatalog());
+        if (manifest == null) {
+            manifest = new DerivativeStage.ManifestWriter(getDerivativeFolder(kip.getCatalog()));
+            derivativeManifests.put(kip.getCatalog(), manifest);
+        }
+        List<CopyTask> remaining = new ArrayList<>(tasks.size());
+        for (CopyTask task : tasks) {
+            Path folder = task.getDestination().getParent();
+            if (folder.equals(targetFolders.get(1)) || folder.equals(targetFolders.get(3))) {
+                // the process folder is moved by goobi, store the target relative to it
+                manifest.add(kip.getLabel(), new CopyTask(task.getSource(), processFolder.relativize(task.getDestination())));
+            } else {
+                remaining.add(task);
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Close the manifests of this run and copy the derivatives in the background
+     */
+    private void startDerivativeStage() {
+        if (derivativeManifests.isEmpty()) {
+            return;
+        }
+        DerivativeStage stage = getDerivativeStage();
+        for (Entry<String, DerivativeStage.ManifestWriter> entry : derivativeManifests.entrySet()) {
+            try {
+                entry.getValue().close();
+            } catch (IOException e) {
+                log.error(e);
+                continue;
+            }
+            // includes the manifests that were given up earlier, manifests that are still scheduled are not processed twice
+            stage.scheduleAll(getDerivativeFolder(entry.getKey()));
+        }
+        derivativeManifests.clear();
+    }
+
+    /**
+     * Get the shared stage, it is only started by an import that deferred derivatives. It is created again, if the number of threads or the retries
+     * were changed in the configuration. A new stage schedules the manifests of all catalogues, including those left over before a restart, and is
+     * stopped when the application shuts down.
+     */
+    private DerivativeStage getDerivativeStage() {
+        long retryDelay = derivativeRetryDelay * 1000;
+        synchronized (KatzoomImportPlugin.class) {
+            if (derivativeStage != null && (derivativeStage.getThreads() != derivativeThreads || derivativeStage.getRetryDelay() != retryDelay
+                    || derivativeStage.getRetries() != derivativeRetries)) {
+                log.info("Configuration of the derivative stage changed, restarting it");
+                stopDerivativeStage();
+                Runtime.getRuntime().removeShutdownHook(derivativeStageShutdownHook);
+            }
+            if (derivativeStage == null) {
+                FileCopier copier = (source, destination) -> {
+                    StorageProvider.getInstance().createDirectories(destination.getParent());
+                    StorageProvider.getInstance().copyFile(source, destination);
+                };
+                derivativeStage =
+                        new DerivativeStage(derivativeThreads, copier, KatzoomImportPlugin::findProcessFolder, retryDelay, derivativeRetries);
+                derivativeStageShutdownHook = new Thread(KatzoomImportPlugin::stopDerivativeStage, "katzoom-derivative-shutdown");
+                Runtime.getRuntime().addShutdownHook(derivativeStageShutdownHook);
+                for (String catalog : StorageProvider.getInstance().list(importRootFolder)) {
+                    derivativeStage.scheduleAll(getDerivativeFolder(catalog));
+                }
+            }
+            return derivativeStage;
+        }
+    }
+
+    /**
+     * Stop the shared stage, the manifests keep the files that are not copied yet
+     */
+    private static void stopDerivativeStage() {
+        synchronized (KatzoomImportPlugin.class) {
+            if (derivativeStage != null) {
+                derivativeStage.close();
+                derivativeStage = null;
+            }
+        }
+    }
+
+    private static Path findProcessFolder(String processTitle, long createdAfter) {
+        try {
+            Integer processId = new DatabaseTitleSource().findProcessId(processTitle, createdAfter);
+            if (processId == null) {
+                return null;
+            }
+            return Paths.get(ConfigurationHelper.getInstance().getMetadataFolder(), String.valueOf(processId));
+        } catch (IOException e) {
+            log.error("Cannot find process {}: {}", processTitle, e.getMessage());
+            return null;
+        }
+    }
+
+    private Path getDerivativeFolder(String catalog) {
+        return Paths.get(getIndexFolder(catalog).toString(), "derivatives");
+    }
+
+    /**
+     * get the target folders of a process: master, media, text and pdf folder
+     */
+    private List<Path> getTargetFolders(Path processFolder, String processName) {
+        Path masterFolder = Paths.get(processFolder.toString(), "images", processName + "_master");
+        Path mediaFolder = Paths.get(processFolder.toString(), "images", processName + "_media");
         Path textFolder = Paths.get(processFolder.toString(), "ocr", processName + "txt");
         Path pdfFolder = Paths.get(processFolder.toString(), "ocr", processName + "_pdf");
-        StorageProvider.getInstance().createDirectories(mediaFolder);
-        StorageProvider.getInstance().createDirectories(masterFolder);
-        StorageProvider.getInstance().createDirectories(textFolder);
-        StorageProvider.getInstance().createDirectories(pdfFolder);
+        return Arrays.asList(masterFolder, mediaFolder, textFolder, pdfFolder);
+    }
 
+    /**
+     * Find the target for each file of a card, without copying anything
+     */
+    private List<CopyTask> planCopyTasks(List<String> files, List<Path> targetFolders) {
+        List<CopyTask> tasks = new ArrayList<>();
         for (String fileToImport : files) {
             Path fileToCopy = Paths.get(fileToImport);
+            Path destinationFolder = null;
             // tif -> images/master
             if (fileToImport.endsWith(".tif")) {
-                StorageProvider.getInstance().copyFile(fileToCopy, Paths.get(masterFolder.toString(), fileToCopy.getFileName().toString()));
+                destinationFolder = targetFolders.get(0);
             }
             // png -> images/media
             else if (fileToImport.endsWith(".png")) {
-                StorageProvider.getInstance().copyFile(fileToCopy, Paths.get(mediaFolder.toString(), fileToCopy.getFileName().toString()));
+                destinationFolder = targetFolders.get(1);
             }
             // txt -> ocr/text
             else if (fileToImport.endsWith(".txt")) {
-                StorageProvider.getInstance().copyFile(fileToCopy, Paths.get(textFolder.toString(), fileToCopy.getFileName().toString()));
+                destinationFolder = targetFolders.get(2);
             }
             // pdf -> ocr/pdf
             else if (fileToImport.endsWith(".pdf")) {
-                StorageProvider.getInstance().copyFile(fileToCopy, Paths.get(pdfFolder.toString(), fileToCopy.getFileName().toString()));
+                destinationFolder = targetFolders.get(3);
+            }
+            if (destinationFolder != null) {
+                tasks.add(new CopyTask(fileToCopy, Paths.get(destinationFolder.toString(), fileToCopy.getFileName().toString())));
             }
         }
-        return masterFolder;
+        return tasks;
+    }
+
+    private void indexOcrText(KatzoomImportObject kip, List<String> files) throws IOException {
+        List<Path> textFiles = new ArrayList<>();
+        for (String file : files) {
+            if (file.endsWith(".txt")) {
+                textFiles.add(Paths.get(file));
+            }
+        }
+        OcrIndex index = ocrIndexes.get(kip.getCatalog());
+        if (index == null) {
+            // extend an existing index of the catalogue
+            index = OcrIndex.load(getOcrIndexFile(kip.getCatalog()));
+            ocrIndexes.put(kip.getCatalog(), index);
+        }
+        index.addCard(kip, textFiles);
+    }
+
+    private void saveOcrIndexes() {
+        for (Entry<String, OcrIndex> entry : ocrIndexes.entrySet()) {
+            try {
+                entry.getValue().save(getOcrIndexFile(entry.getKey()));
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+        ocrIndexes.clear();
+    }
+
+    /**
+     * Find all cards of a catalogue containing the search terms in their OCR text. The index is created during the import, if
+     * <code>&lt;ocrIndex&gt;</code> is enabled.
+     * 
+     * @param catalog name of the catalogue folder
+     * @param query one or more search terms, all terms must match
+     * @return the matching cards with letter, tray and positions
+     * @throws IOException if the index cannot be read
+     */
+    public List<OcrIndex.IndexedCard> searchOcrIndex(String catalog, String query) throws IOException {
+        readConfig();
+        return OcrIndex.open(getOcrIndexFile(catalog)).search(query);
+    }
+
+    private Path getOcrIndexFile(String catalog) {
+        return Paths.get(getIndexFolder(catalog).toString(), "katzoom-ocr.idx");
+    }
+
+    /**
+     * get the folder for generated index files of a catalogue
+     */
+    private Path getIndexFolder(String catalog) {
+        if (StringUtils.isBlank(indexFolder)) {
+            return Paths.get(importRootFolder, catalog);
+        }
+        return Paths.get(indexFolder, catalog);
     }
 
     /**
@@ -488,190 +1189,235 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
 
     @Override
     public List<Record> generateRecordsFromFilenames(List<String> indexes) {
-        List<Record> records = new ArrayList<>();
+        List<Record> records = recordStoreThreshold > 0 ? new RecordStore(recordStoreThreshold) : new ArrayList<>();
         // run through each selected index
         for (String index : indexes) {
+            int firstRecordOfIndex = records.size();
             boolean backsideScanned = backsideScans.contains(index);
             Path folder = Paths.get(importRootFolder, index);
+
+            Path planFile = getPlanFile(index);
+            if (usePlan && !dryRun && Files.exists(planFile)) {
+                // execute an existing plan, the catalogue is not scanned again
+                try {
+                    ImportPlan.read(planFile, records);
+                } catch (IOException e) {
+                    log.error(e);
+                }
+                if (generateEadFile && !isShardImport()) {
+                    generateEadStructure(records.subList(firstRecordOfIndex, records.size()), index);
+                }
+                continue;
+            }
             // load *.ind file to check letter index (format it: new line after each number)
             // load *.lli file to check tray index (does not exist for every index)
+            // load *_adm.ind file for the administrative index, its letters are assigned in the same run
             String letterIndexFile = null;
+            String adminLetterIndexFile = null;
             String trayIndexFile = null;
             for (String fileInFolder : StorageProvider.getInstance().list(folder.toString(), NIOFileUtils.fileFilter)) {
                 if (fileInFolder.endsWith(".ind") && !fileInFolder.contains("adm")) {
                     letterIndexFile = fileInFolder;
+                } else if (fileInFolder.endsWith(".ind")) {
+                    adminLetterIndexFile = fileInFolder;
                 } else if (fileInFolder.endsWith(".lli")) {
                     trayIndexFile = fileInFolder;
                 }
             }
             List<LetterIndex> letterIndex = readLetterIndexFile(folder, letterIndexFile);
             List<TrayIndex> trayIndex = readTrayIndexFile(folder, trayIndexFile);
+            List<LetterIndex> adminLetterIndex = readAdminLetterIndexFile(folder, adminLetterIndexFile, letterIndexFile);
+            if (letterIndex.isEmpty()) {
+                // every card needs a letter, the positions cannot be assigned
+                log.error("Catalogue {} is skipped, the letter index is missing or invalid", index);
+                continue;
+            }
+            ImportPlan.Writer planWriter = null;
+            if (dryRun) {
+                try {
+                    planWriter = new ImportPlan.Writer(planFile);
+                } catch (IOException e) {
+                    log.error(e);
+                    continue;
+                }
+            }
 
             // get the actual content from all sub folders
             List<Path> allFiles = new ArrayList<>();
-
-            try {
-                Files.find(folder, 5,
-                        (p, found) -> found.isRegularFile())
-                        .forEach(allFiles::add);
+            // sum up the file sizes for the catalogue summary, the attributes are read by the walk anyway
+            long[] totalBytes = new long[1];
+            CardImportEvent scanEvent = CardImportEvent.startScan(index);
+            try (Stream<Path> stream = Files.find(folder, 5, (p, found) -> {
+                if (found.isRegularFile()) {
+                    totalBytes[0] += found.size();
+                    return true;
+                }
+                return false;
+            })) {
+                stream.forEach(allFiles::add);
             } catch (IOException e) {
                 log.error(e);
             }
 
-            Map<Integer, List<String>> contentMap = new TreeMap<>(); // TreeMap to sort entries by key
-            // files always follow the pattern letter - number - .extension
-
-            for (Path p : allFiles) {
-                String filename = p.getFileName().toString();
-                if (filename.matches("\\w\\d+\\.\\w+")) {
-                    Integer id = Integer.parseInt(filename.substring(1, filename.indexOf(".")));
-
-                    // if back side was scanned and we have an even number, than the common identifier is number -1
-                    if (backsideScanned && (id % 2 == 0)) {
-                        id = id - 1;
-                    }
-                    // add file to the list grouped by the common number
-                    List<String> files = contentMap.getOrDefault(id, new ArrayList<>());
-                    files.add(p.toString());
-                    contentMap.put(id, files);
-                }
-            }
-
-            int totalPosition = 0;
-            for (Entry<Integer, List<String>> entry : contentMap.entrySet()) {
-                // get position in total index
-                totalPosition++;
-                // find correct letter based on position
-                LetterIndex ind = findLetterIndexForPosition(totalPosition, letterIndex);
-                String currentLetter = ind.getLetter();
-                // get position within letter
-                int positionInLetterIndex = ind.getCurrentPosition();
-                ind.setCurrentPosition(positionInLetterIndex + 1);
-
-                // find correct tray based on position
-                TrayIndex ind2 = findTrayIndexForPosition(totalPosition, trayIndex);
-
-                String currentTray = "";
-                int positionInTrayIndex = 0;
-                if (ind2 != null) {
-                    currentTray = ind2.getTrayName();
-                    // get position within tray
-                    positionInTrayIndex = ind2.getCurrentPosition();
-                    ind2.setCurrentPosition(positionInTrayIndex + 1);
-                }
-
-                KatzoomImportObject kip = new KatzoomImportObject();
-                kip.setId(entry.getKey());
-                kip.setTotalPosition(totalPosition);
-
-                kip.setLetterName(currentLetter);
-                kip.setLetterPosition(positionInLetterIndex);
-
-                kip.setTrayName(currentTray);
-                kip.setTrayPosition(positionInTrayIndex);
-
-                kip.setFiles(entry.getValue());
-
-                List<String> files = kip.getFiles();
-                Collections.sort(files);
-                String filename = files.get(0);
-                // get process title
-                String processName = filename.substring(filename.lastIndexOf("/") + 1, filename.indexOf("."));
-                kip.setLabel(processName);
+            // group the files into cards and calculate the positions
+            PositionAssignment assignment = new PositionAssignment(index, backsideScanned, letterIndex, trayIndex, adminLetterIndex);
+            ImportPlan.Writer cardPlanWriter = planWriter;
+            // the cards of each folder are added as soon as they are assigned, the whole catalogue is never kept in a list
+            int numberOfCards = assignment.assign(allFiles, kip -> {
+                String processName = kip.getLabel();
                 Record rec = new Record();
-                rec.setId(String.valueOf(entry.getKey()));
+                rec.setId(String.valueOf(kip.getId()));
                 rec.setData(rec.getId());
                 rec.setObject(kip);
-                records.add(rec);
+                if (cardPlanWriter != null) {
+                    // metadata only, get the targets and sizes of the files
+                    try {
+                        cardPlanWriter.writeCard(kip, planCopyTasks(kip.getFiles(), getTargetFolders(Paths.get(processName), processName)));
+                    } catch (IOException e) {
+                        log.error(e);
+                    }
+                } else {
+                    records.add(rec);
+                }
+            });
+            scanEvent.finish(CardImportEvent.OK, totalBytes[0]);
+            updateStatistics(index, statistics -> statistics.addScan(numberOfCards, totalBytes[0]));
+            if (planWriter != null) {
+                try {
+                    planWriter.close();
+                    log.info("Import plan for {} written to {}: {} cards, {} pages, {} bytes", index, planFile, planWriter.getNumberOfCards(),
+                            planWriter.getNumberOfPages(), planWriter.getNumberOfBytes());
+                } catch (IOException e) {
+                    log.error(e);
+                }
+                continue;
             }
-            if (generateEadFile) {
-                generateEadStructure(records, index);
+            if (positionIndex) {
+                writePositionIndex(index, records.subList(firstRecordOfIndex, records.size()));
+            }
+            // in a sharded import, the ead file is created after all nodes are finished
+            if (generateEadFile && !isShardImport()) {
+                // only the cards of this catalogue, the list contains the cards of all selected catalogues
+                generateEadStructure(records.subList(firstRecordOfIndex, records.size()), index);
             }
         }
 
         return records;
     }
 
-    private TrayIndex findTrayIndexForPosition(int position, List<TrayIndex> trayIndex) {
-        if (trayIndex.isEmpty()) {
-            return null;
+    private void saveImportStatistics() {
+        // both maps get an entry for each catalogue with a card in this run
+        for (Entry<String, BitSet> entry : importedPositions.entrySet()) {
+            int failed = failedCounts.get(entry.getKey())[0];
+            updateStatistics(entry.getKey(), statistics -> statistics.addImport(entry.getValue(), failed));
         }
-        TrayIndex current = null;
-        if (position == 1) {
-            current = trayIndex.get(0);
-        } else {
-            for (TrayIndex li : trayIndex) {
-                if (position > li.getStartPosition()) {
-                    current = li;
-                }
-            }
+        importedPositions.clear();
+        failedCounts.clear();
+    }
+
+    private void updateStatistics(String catalog, Consumer<CatalogStatistics> update) {
+        Path file = getStatisticsFile(catalog);
+        try {
+            CatalogStatistics statistics = CatalogStatistics.load(file);
+            update.accept(statistics);
+            statistics.save(file);
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot update statistics of catalogue {}: {}", catalog, e.getMessage());
         }
-        return current;
     }
 
-    private LetterIndex findLetterIndexForPosition(int position, List<LetterIndex> letterIndex) {
-        LetterIndex current = null;
-        if (position == 1) {
-            current = letterIndex.get(0);
-        } else {
-            for (LetterIndex li : letterIndex) {
-                if (position > li.getStartPosition()) {
-                    current = li;
-                }
-            }
+    private void writePositionIndex(String catalog, List<Record> catalogRecords) {
+        try {
+            PositionIndex.write(getPositionIndexFile(catalog), asCards(catalogRecords));
+        } catch (IOException e) {
+            log.error(e);
         }
-        return current;
+    }
+
+    private static List<KatzoomImportObject> asCards(List<Record> records) {
+        // the records might be stored on disc, don't copy them into a new list
+        return new AbstractList<KatzoomImportObject>() {
+            @Override
+            public KatzoomImportObject get(int index) {
+                return (KatzoomImportObject) records.get(index).getObject();
+            }
+
+            @Override
+            public int size() {
+                return records.size();
+            }
+        };
+    }
+
+    /**
+     * Open the navigation index of a catalogue. The index is written during the record generation, if <code>&lt;positionIndex&gt;</code> is enabled.
+     * 
+     * @param catalog name of the catalogue folder
+     * @return the memory mapped index
+     * @throws IOException if the index does not exist or cannot be read
+     */
+    public PositionIndex openPositionIndex(String catalog) throws IOException {
+        readConfig();
+        return PositionIndex.open(getPositionIndexFile(catalog));
+    }
+
+    private Path getPlanFile(String catalog) {
+        return Paths.get(getIndexFolder(catalog).toString(), "katzoom-plan.tsv");
+    }
+
+    private Path getStatisticsFile(String catalog) {
+        return Paths.get(getIndexFolder(catalog).toString(), "katzoom-stats.properties");
+    }
+
+    private Path getPositionIndexFile(String catalog) {
+        return Paths.get(getIndexFolder(catalog).toString(), "katzoom-positions.idx");
     }
 
     private List<LetterIndex> readLetterIndexFile(Path folder, String indexFileName) {
-        List<LetterIndex> index = new ArrayList<>();
         if (indexFileName == null) {
             // missing file, abort
             return Collections.emptyList();
         }
         try {
-            String indexFileContent = Files.readString(Paths.get(folder.toString(), indexFileName));
-
-            Matcher matcher = letterIndexFilePattern.matcher(indexFileContent);
-            while (matcher.find()) {
-                MatchResult mr = matcher.toMatchResult();
-                index.add(new LetterIndex(mr.group(1), Integer.valueOf(mr.group(2)), 1));
-            }
+            // the parsed file is cached, the returned objects are new for each run
+            return IndexFiles.readLetterIndex(Paths.get(folder.toString(), indexFileName)).createLetterIndex();
+        } catch (IndexFileException e) {
+            log.error("Invalid letter index: {}", e.getMessage());
+        } catch (IOException e) {
+            log.error(e);
+        }
+        return Collections.emptyList();
+    }
 
+    private List<LetterIndex> readAdminLetterIndexFile(Path folder, String adminIndexFileName, String indexFileName) {
+        if (adminIndexFileName == null || indexFileName == null) {
+            return Collections.emptyList();
+        }
+        try {
+            // the administrative index counts the images, convert its positions into card positions
+            int numberOfCards = IndexFiles.readLetterIndex(Paths.get(folder.toString(), indexFileName)).getTotal();
+            return IndexFiles.readLetterIndex(Paths.get(folder.toString(), adminIndexFileName)).createLetterIndex(numberOfCards);
+        } catch (IndexFileException e) {
+            log.error("Invalid admin letter index: {}", e.getMessage());
         } catch (IOException e) {
             log.error(e);
         }
-        return index;
+        return Collections.emptyList();
     }
 
     private List<TrayIndex> readTrayIndexFile(Path folder, String indexFileName) {
-        List<TrayIndex> index = new ArrayList<>();
         if (indexFileName == null) {
             // missing file, abort
             return Collections.emptyList();
         }
-
-        Path p = Paths.get(folder.toString(), indexFileName);
-
         try {
-            List<String> content = Files.readAllLines(p, StandardCharsets.ISO_8859_1);
-            for (String line : content) {
-                Matcher matcher = trayIndexFilePattern.matcher(line);
-
-                while (matcher.find()) {
-                    MatchResult mr = matcher.toMatchResult();
-                    int order = Integer.parseInt(mr.group(1));
-                    String label = mr.group(2);
-                    int startPosition = Integer.parseInt(mr.group(3));
-                    int numberOfEntries = Integer.parseInt(mr.group(4));
-                    index.add(new TrayIndex(label, order, startPosition, numberOfEntries, 1));
-                }
-            }
-
+            return IndexFiles.readTrayIndex(Paths.get(folder.toString(), indexFileName)).createTrayIndex();
+        } catch (IndexFileException e) {
+            log.error("Invalid tray index: {}", e.getMessage());
         } catch (IOException e) {
             log.error(e);
         }
-        return index;
+        return Collections.emptyList();
     }
 
     @Override
@@ -681,6 +1427,21 @@ public class KatzoomImportPlugin implements IImportPluginVersion3 {
         return StorageProvider.getInstance().list(importRootFolder);
     }
 
+    /**
+     * Get an overview of all catalogues in the import folder. Only the index files and the stored statistics are read, so this is fast even for
+     * many large catalogues. Total size and import state are known after the first import of a catalogue.
+     * 
+     * @return a summary for each catalogue folder
+     */
+    public List<CatalogSummary> getCatalogSummaries() {
+        List<CatalogSummary> summaries = new ArrayList<>();
+        for (String catalog : getAllFilenames()) {
+            summaries.add(CatalogSummary.create(catalog, Paths.get(importRootFolder, catalog), getStatisticsFile(catalog),
+                    backsideScans.contains(catalog)));
+        }
+        return summaries;
+    }
+
     @Override
     public List<? extends DocstructElement> getCurrentDocStructs() {
         return null; //NOSONAR
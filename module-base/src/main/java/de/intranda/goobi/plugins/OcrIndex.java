@@ -0,0 +1,425 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Inverted index over the OCR text of all cards of a catalogue. Each term points to a sorted list of card ids, the card table contains the letter,
+ * tray and positions of each card. The index is stored in a single file.
+ *
+ * Searches use {@link #open(Path)}, which keeps the recently used indexes in memory and reads a file again only if its modification time or size
+ * changed. The import extends its own copy from {@link #load(Path)}.
+ */
+public class OcrIndex {
+
+    private static final int MAGIC = 0x4B4F4349;
+    private static final int VERSION = 1;
+
+    private static final int MIN_TERM_LENGTH = 2;
+
+    // number of loaded indexes kept for searches, the least recently used index is removed first
+    private static final int CACHE_SIZE = 8;
+
+    private static final Map<Path, CacheEntry> CACHE = Collections.synchronizedMap(new LinkedHashMap<Path, CacheEntry>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, CacheEntry> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    // card id -> card data, sorted by id
+    private final Map<Integer, IndexedCard> cards = new TreeMap<>();
+
+    // term -> posting list of card ids
+    private final Map<String, PostingList> postings = new HashMap<>();
+
+    // card id -> terms of the card, used to remove the card from its posting lists
+    private final Map<Integer, String[]> cardTerms = new HashMap<>();
+    // false for a loaded index until a card is replaced, searches never need the terms of a card
+    private boolean cardTermsCollected = true;
+
+    /**
+     * Get the index of a catalogue for searching. The index is read once and kept in memory until the file changes. The returned index is shared
+     * and must not be changed.
+     *
+     * @param indexFile the index file
+     * @return the index, an empty index if the file does not exist
+     * @throws IOException
+     */
+    public static OcrIndex open(Path indexFile) throws IOException {
+        Path key = indexFile.toAbsolutePath().normalize();
+        if (!Files.exists(key)) {
+            CACHE.remove(key);
+            return new OcrIndex();
+        }
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+        CacheEntry cached = CACHE.get(key);
+        if (cached != null && cached.modified.equals(attributes.lastModifiedTime()) && cached.size == attributes.size()) {
+            return cached.index;
+        }
+        OcrIndex index = load(key);
+        CACHE.put(key, new CacheEntry(attributes.lastModifiedTime(), attributes.size(), index));
+        return index;
+    }
+
+    /**
+     * Load an existing index file. If the file does not exist, an empty index is returned
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException
+     */
+    public static OcrIndex load(Path indexFile) throws IOException {
+        OcrIndex index = new OcrIndex();
+        if (!Files.exists(indexFile)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown OCR index format: " + indexFile);
+            }
+            int numberOfCards = in.readInt();
+            for (int i = 0; i < numberOfCards; i++) {
+                IndexedCard card = new IndexedCard(in.readInt(), in.readUTF(), in.readInt(), in.readUTF(), in.readInt(), in.readUTF(), in.readInt());
+                index.cards.put(card.getId(), card);
+            }
+            int numberOfTerms = in.readInt();
+            for (int i = 0; i < numberOfTerms; i++) {
+                String term = in.readUTF();
+                int size = in.readInt();
+                int[] ids = new int[size];
+                int last = 0;
+                for (int j = 0; j < size; j++) {
+                    last += readVarInt(in);
+                    ids[j] = last;
+                }
+                index.postings.put(term, new PostingList(ids, size));
+            }
+        }
+        index.cardTermsCollected = false;
+        return index;
+    }
+
+    /**
+     * Write the index into a single file. The file is written to a temporary file first and renamed afterwards
+     *
+     * @param indexFile the index file
+     * @throws IOException
+     */
+    public void save(Path indexFile) throws IOException {
+        Files.createDirectories(indexFile.getParent());
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cards.size());
+            for (IndexedCard card : cards.values()) {
+                out.writeInt(card.getId());
+                out.writeUTF(card.getLabel());
+                out.writeInt(card.getTotalPosition());
+                out.writeUTF(card.getLetterName());
+                out.writeInt(card.getLetterPosition());
+                out.writeUTF(card.getTrayName());
+                out.writeInt(card.getTrayPosition());
+            }
+            out.writeInt(postings.size());
+            for (Entry<String, PostingList> entry : postings.entrySet()) {
+                PostingList list = entry.getValue();
+                list.compact();
+                out.writeUTF(entry.getKey());
+                out.writeInt(list.size);
+                // store the gaps between the sorted ids
+                int last = 0;
+                for (int i = 0; i < list.size; i++) {
+                    writeVarInt(out, list.ids[i] - last);
+                    last = list.ids[i];
+                }
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Add a card and its OCR text to the index. If the card was indexed before, the old entry is replaced
+     *
+     * @param kip the card
+     * @param textFiles the OCR files of the card
+     * @throws IOException
+     */
+    public void addCard(KatzoomImportObject kip, List<Path> textFiles) throws IOException {
+        int id = kip.getId();
+        if (cards.containsKey(id)) {
+            removeCard(id);
+        }
+        cards.put(id, new IndexedCard(id, kip.getLabel(), kip.getTotalPosition(), nullToEmpty(kip.getLetterName()), kip.getLetterPosition(),
+                nullToEmpty(kip.getTrayName()), kip.getTrayPosition()));
+
+        Set<String> terms = new HashSet<>();
+        for (Path textFile : textFiles) {
+            // the OCR files are not always UTF-8, invalid bytes must not fail the card
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(textFile), decoder))) {
+                tokenize(reader, terms);
+            }
+        }
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> new PostingList()).add(id);
+        }
+        cardTerms.put(id, terms.toArray(new String[terms.size()]));
+    }
+
+    /**
+     * Find all cards containing all terms of the query
+     *
+     * @param query one or more search terms
+     * @return the matching cards, sorted by id
+     */
+    public List<IndexedCard> search(String query) {
+        Set<String> terms = new HashSet<>();
+        try {
+            tokenize(new StringReader(query), terms);
+        } catch (IOException e) {
+            // cannot happen on a string
+        }
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+        int[] result = null;
+        int resultSize = 0;
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list == null) {
+                return Collections.emptyList();
+            }
+            list.compact();
+            if (result == null) {
+                result = Arrays.copyOf(list.ids, list.size);
+                resultSize = list.size;
+            } else {
+                resultSize = intersect(result, resultSize, list.ids, list.size);
+            }
+        }
+        List<IndexedCard> hits = new ArrayList<>(resultSize);
+        for (int i = 0; i < resultSize; i++) {
+            hits.add(cards.get(result[i]));
+        }
+        return hits;
+    }
+
+    public int getNumberOfCards() {
+        return cards.size();
+    }
+
+    public int getNumberOfTerms() {
+        return postings.size();
+    }
+
+    private void removeCard(int id) {
+        if (!cardTermsCollected) {
+            // only needed when an indexed card is replaced
+            collectCardTerms();
+            cardTermsCollected = true;
+        }
+        cards.remove(id);
+        String[] terms = cardTerms.remove(id);
+        if (terms == null) {
+            return;
+        }
+        // only the posting lists of the terms of this card are touched
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list != null) {
+                list.remove(id);
+                if (list.size == 0) {
+                    postings.remove(term);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collect the terms of each card from the posting lists of a loaded index
+     */
+    private void collectCardTerms() {
+        Map<Integer, List<String>> terms = new HashMap<>();
+        for (Entry<String, PostingList> entry : postings.entrySet()) {
+            PostingList list = entry.getValue();
+            for (int i = 0; i < list.size; i++) {
+                terms.computeIfAbsent(list.ids[i], k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+        for (Entry<Integer, List<String>> entry : terms.entrySet()) {
+            cardTerms.put(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+    }
+
+    /**
+     * intersect two sorted arrays, the result is written into the first array
+     */
+    private static int intersect(int[] a, int aSize, int[] b, int bSize) {
+        int i = 0;
+        int j = 0;
+        int size = 0;
+        while (i < aSize && j < bSize) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                a[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return size;
+    }
+
+    private static void tokenize(Reader reader, Set<String> terms) throws IOException {
+        StringBuilder token = new StringBuilder();
+        int c;
+        while ((c = reader.read()) != -1) {
+            if (Character.isLetterOrDigit(c)) {
+                token.append((char) c);
+            } else {
+                addTerm(token, terms);
+            }
+        }
+        addTerm(token, terms);
+    }
+
+    private static void addTerm(StringBuilder token, Set<String> terms) {
+        if (token.length() >= MIN_TERM_LENGTH) {
+            terms.add(token.toString().toLowerCase(Locale.ROOT));
+        }
+        token.setLength(0);
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    /**
+     * growable list of card ids, kept sorted and free of duplicates after {@link #compact()}
+     */
+    private static class PostingList {
+        private int[] ids;
+        private int size;
+        private boolean sorted = true;
+
+        PostingList() {
+            ids = new int[4];
+        }
+
+        PostingList(int[] ids, int size) {
+            this.ids = ids;
+            this.size = size;
+        }
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            if (size > 0 && ids[size - 1] >= id) {
+                sorted = false;
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            int newSize = 0;
+            for (int i = 0; i < size; i++) {
+                if (ids[i] != id) {
+                    ids[newSize++] = ids[i];
+                }
+            }
+            size = newSize;
+        }
+
+        void compact() {
+            if (!sorted) {
+                Arrays.sort(ids, 0, size);
+                int newSize = 0;
+                for (int i = 0; i < size; i++) {
+                    if (newSize == 0 || ids[newSize - 1] != ids[i]) {
+                        ids[newSize++] = ids[i];
+                    }
+                }
+                size = newSize;
+                sorted = true;
+            }
+        }
+    }
+
+    @AllArgsConstructor
+    private static class CacheEntry {
+        private final FileTime modified;
+        private final long size;
+        private final OcrIndex index;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class IndexedCard {
+        private int id;
+        private String label;
+        private int totalPosition;
+        private String letterName;
+        private int letterPosition;
+        private String trayName;
+        private int trayPosition;
+    }
+}
@@ -0,0 +1,123 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Transfers all files of a card at the same time. The number of parallel transfers is limited by the size of the thread pool, so only this number
+ * of connections is open at once. Failed transfers are repeated, the copier overwrites partially transferred files.
+ */
+@Log4j2
+public class ParallelFileTransfer implements Closeable {
+
+    private final ExecutorService executor;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    private final FileCopier copier;
+
+    /**
+     * 
+     * @param connections maximum number of parallel transfers
+     * @param retries number of retries after a failed transfer
+     * @param retryDelay delay in milliseconds before the first retry, it increases with every further attempt
+     * @param copier the copier used for a single file, if no other copier is passed with the files
+     */
+    public ParallelFileTransfer(int connections, int retries, long retryDelay, FileCopier copier) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, connections), r -> {
+            Thread t = new Thread(r, "katzoom-transfer-" + threadCounter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.retries = Math.max(0, retries);
+        this.retryDelay = retryDelay;
+        this.copier = copier;
+    }
+
+    /**
+     * Transfer all files and wait until every transfer is finished
+     * 
+     * @param tasks the files to transfer
+     * @throws IOException if at least one file could not be transferred after all retries
+     */
+    public void transfer(List<CopyTask> tasks) throws IOException {
+        transfer(tasks, copier);
+    }
+
+    /**
+     * Transfer all files with the given copier and wait until every transfer is finished. The copier can carry the context of the files, e.g. the
+     * card they belong to, into the transfer threads.
+     * 
+     * @param tasks the files to transfer
+     * @param taskCopier the copier used for a single file of these tasks
+     * @throws IOException if at least one file could not be transferred after all retries
+     */
+    public void transfer(List<CopyTask> tasks, FileCopier taskCopier) throws IOException {
+        List<Future<Void>> futures = new ArrayList<>(tasks.size());
+        for (CopyTask task : tasks) {
+            futures.add(executor.submit(() -> {
+                copyWithRetry(task, taskCopier);
+                return null;
+            }));
+        }
+
+        IOException error = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                IOException exception = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+                if (error == null) {
+                    error = exception;
+                } else {
+                    error.addSuppressed(exception);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void copyWithRetry(CopyTask task, FileCopier taskCopier) throws IOException {
+        int attempt = 0;
+        while (true) {
+            try {
+                taskCopier.copy(task.getSource(), task.getDestination());
+                return;
+            } catch (IOException e) {
+                if (attempt >= retries) {
+                    throw e;
+                }
+                attempt++;
+                log.warn("Transfer of {} failed, retry {} of {}", task.getSource(), attempt, retries);
+                try {
+                    Thread.sleep(retryDelay * attempt);
+                } catch (InterruptedException e1) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
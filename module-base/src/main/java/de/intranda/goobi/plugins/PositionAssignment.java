@@ -0,0 +1,424 @@
+package de.intranda.goobi.plugins;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Assigns the total, letter and tray positions to the cards of a catalogue. The card numbers of each leaf folder are read in parallel, the start
+ * position of each folder is the sum of the cards in the previous folders. Then the cards of a few folders at a time are created in parallel, using
+ * the start positions of the letter and tray index, and handed over before the next folders are read. If the catalogue has an administrative
+ * index, its letters are assigned in the same way.
+ *
+ * If the folders cannot be ordered by their card numbers or the index files are not sorted, the positions are assigned sequentially over all cards.
+ * Both ways give the same result.
+ */
+public class PositionAssignment {
+
+    // files always follow the pattern letter - number - .extension
+    private static final Pattern CARD_FILE = Pattern.compile("\\w\\d+\\.\\w+");
+
+    private final String catalog;
+    private final boolean backsideScanned;
+    private final List<LetterIndex> letterIndex;
+    private final List<TrayIndex> trayIndex;
+    private final List<LetterIndex> adminLetterIndex;
+
+    // start positions of the entries, used when the index files are sorted
+    private final int[] letterStarts;
+    private final int[] trayStarts;
+    private final int[] adminLetterStarts;
+
+    /**
+     *
+     * @param catalog name of the catalogue folder
+     * @param backsideScanned true, if each card has a front and a back side image with consecutive numbers
+     * @param letterIndex the letters, with the current position set to 1
+     * @param trayIndex the trays, with the current position set to 1, or an empty list
+     */
+    public PositionAssignment(String catalog, boolean backsideScanned, List<LetterIndex> letterIndex, List<TrayIndex> trayIndex) {
+        this(catalog, backsideScanned, letterIndex, trayIndex, Collections.emptyList());
+    }
+
+    /**
+     *
+     * @param catalog name of the catalogue folder
+     * @param backsideScanned true, if each card has a front and a back side image with consecutive numbers
+     * @param letterIndex the letters, with the current position set to 1
+     * @param trayIndex the trays, with the current position set to 1, or an empty list
+     * @param adminLetterIndex the letters of the administrative index with start positions in cards, or an empty list
+     */
+    public PositionAssignment(String catalog, boolean backsideScanned, List<LetterIndex> letterIndex, List<TrayIndex> trayIndex,
+            List<LetterIndex> adminLetterIndex) {
+        this.catalog = catalog;
+        this.backsideScanned = backsideScanned;
+        this.letterIndex = letterIndex;
+        this.trayIndex = trayIndex;
+        this.adminLetterIndex = adminLetterIndex;
+        letterStarts = getStarts(letterIndex);
+        trayStarts = getTrayStarts();
+        adminLetterStarts = getStarts(adminLetterIndex);
+    }
+
+    /**
+     * Create the cards of all files. The cards are handed over in the order of their position as soon as the cards of a folder are ready, so the
+     * cards of the whole catalogue are never kept in a list.
+     *
+     * @param files all files of the catalogue
+     * @param consumer receives the cards, ordered by their position
+     * @return number of cards
+     */
+    public int assign(List<Path> files, Consumer<KatzoomImportObject> consumer) {
+        int[] numberOfCards = new int[1];
+        Consumer<KatzoomImportObject> counter = card -> {
+            numberOfCards[0]++;
+            consumer.accept(card);
+        };
+        if (!letterIndex.isEmpty() && isSorted(letterStarts) && (trayIndex.isEmpty() || isSorted(trayStarts))
+                && (adminLetterIndex.isEmpty() || isSorted(adminLetterStarts)) && assignParallel(files, counter)) {
+            return numberOfCards[0];
+        }
+        assignSequential(files, counter);
+        return numberOfCards[0];
+    }
+
+    /**
+     * Assign the positions folder by folder. Returns false without handing over any card, if the card numbers of the folders overlap.
+     */
+    boolean assignParallel(List<Path> files, Consumer<KatzoomImportObject> consumer) {
+        Map<Path, List<Path>> filesPerFolder = new LinkedHashMap<>();
+        for (Path file : files) {
+            filesPerFolder.computeIfAbsent(file.getParent(), k -> new ArrayList<>()).add(file);
+        }
+
+        // only the card numbers of each folder are needed to order the folders and count their cards
+        List<Folder> folders = filesPerFolder.values()
+                .parallelStream()
+                .map(this::createFolder)
+                .filter(folder -> folder.ids.length > 0)
+                .sorted(Comparator.comparingInt(folder -> folder.ids[0]))
+                .collect(Collectors.toList());
+
+        // front and back side of a card can be in different folders, the back side belongs to the folder of the front side
+        List<Folder> orderedFolders = new ArrayList<>(folders.size());
+        Folder previous = null;
+        for (Folder current : folders) {
+            if (previous != null && previous.getLastId() == current.ids[0]) {
+                previous.continuations.add(current);
+                current.first = 1;
+            }
+            if (current.first == current.ids.length) {
+                // the folder contains only the back side
+                continue;
+            }
+            if (previous != null && previous.getLastId() > current.ids[current.first]) {
+                return false;
+            }
+            orderedFolders.add(current);
+            previous = current;
+        }
+
+        // prefix sum over the number of cards
+        int[] startPositions = new int[orderedFolders.size()];
+        int position = 1;
+        for (int i = 0; i < orderedFolders.size(); i++) {
+            startPositions[i] = position;
+            position += orderedFolders.get(i).ids.length - orderedFolders.get(i).first;
+        }
+
+        // create the cards of a few folders at the same time and hand them over before the next folders are read
+        int blockSize = Math.max(1, Runtime.getRuntime().availableProcessors() * 2);
+        for (int from = 0; from < orderedFolders.size(); from += blockSize) {
+            List<List<KatzoomImportObject>> cardsPerFolder = IntStream.range(from, Math.min(from + blockSize, orderedFolders.size()))
+                    .parallel()
+                    .mapToObj(i -> createCards(orderedFolders.get(i), startPositions[i]))
+                    .collect(Collectors.toList());
+            for (List<KatzoomImportObject> cards : cardsPerFolder) {
+                cards.forEach(consumer);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Create the cards of a folder, starting at the given total position
+     */
+    private List<KatzoomImportObject> createCards(Folder folder, int startPosition) {
+        TreeMap<Integer, List<String>> cardFiles = groupFiles(folder.files);
+        if (folder.first > 0) {
+            // the back side of the last card of the previous folder
+            cardFiles.pollFirstEntry();
+        }
+        int lastId = folder.getLastId();
+        for (Folder continuation : folder.continuations) {
+            for (Path file : continuation.files) {
+                Integer id = getCardId(file);
+                if (id != null && id == lastId) {
+                    cardFiles.get(lastId).add(file.toString());
+                }
+            }
+        }
+
+        List<KatzoomImportObject> cards = new ArrayList<>(cardFiles.size());
+        int totalPosition = startPosition;
+        for (Entry<Integer, List<String>> entry : cardFiles.entrySet()) {
+            int letterOrdinal = findIndex(totalPosition, letterStarts);
+            LetterIndex letter = letterIndex.get(letterOrdinal);
+            int letterPosition = getPositionInIndex(totalPosition, letterOrdinal, letterStarts[letterOrdinal]);
+
+            String trayName = "";
+            int trayPosition = 0;
+            if (!trayIndex.isEmpty()) {
+                int trayOrdinal = findIndex(totalPosition, trayStarts);
+                trayName = trayIndex.get(trayOrdinal).getTrayName();
+                trayPosition = getPositionInIndex(totalPosition, trayOrdinal, trayStarts[trayOrdinal]);
+            }
+            KatzoomImportObject card =
+                    createCard(entry.getKey(), entry.getValue(), totalPosition, letter.getLetter(), letterPosition, trayName, trayPosition);
+            if (!adminLetterIndex.isEmpty()) {
+                int adminOrdinal = findIndex(totalPosition, adminLetterStarts);
+                card.setAdminLetterName(adminLetterIndex.get(adminOrdinal).getLetter());
+                card.setAdminLetterPosition(getPositionInIndex(totalPosition, adminOrdinal, adminLetterStarts[adminOrdinal]));
+            }
+            cards.add(card);
+            totalPosition++;
+        }
+        return cards;
+    }
+
+    /**
+     * Assign the positions in a single loop over all cards, counting the cards of each letter and tray
+     */
+    void assignSequential(List<Path> files, Consumer<KatzoomImportObject> consumer) {
+        Map<Integer, List<String>> contentMap = new TreeMap<>(); // TreeMap to sort entries by key
+        for (Path p : files) {
+            addFile(contentMap, p);
+        }
+
+        int totalPosition = 0;
+        Iterator<Entry<Integer, List<String>>> iterator = contentMap.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<Integer, List<String>> entry = iterator.next();
+            // the file list is kept in the card, remove it from the map
+            iterator.remove();
+            // get position in total index
+            totalPosition++;
+            // find correct letter based on position
+            LetterIndex ind = findLetterIndexForPosition(totalPosition, letterIndex);
+            String currentLetter = ind.getLetter();
+            // get position within letter
+            int positionInLetterIndex = ind.getCurrentPosition();
+            ind.setCurrentPosition(positionInLetterIndex + 1);
+
+            // find correct tray based on position
+            TrayIndex ind2 = findTrayIndexForPosition(totalPosition, trayIndex);
+
+            String currentTray = "";
+            int positionInTrayIndex = 0;
+            if (ind2 != null) {
+                currentTray = ind2.getTrayName();
+                // get position within tray
+                positionInTrayIndex = ind2.getCurrentPosition();
+                ind2.setCurrentPosition(positionInTrayIndex + 1);
+            }
+            KatzoomImportObject card = createCard(entry.getKey(), entry.getValue(), totalPosition, currentLetter, positionInLetterIndex, currentTray,
+                    positionInTrayIndex);
+
+            // the same for the administrative index
+            if (!adminLetterIndex.isEmpty()) {
+                LetterIndex adminLetter = findLetterIndexForPosition(totalPosition, adminLetterIndex);
+                card.setAdminLetterName(adminLetter.getLetter());
+                card.setAdminLetterPosition(adminLetter.getCurrentPosition());
+                adminLetter.setCurrentPosition(adminLetter.getCurrentPosition() + 1);
+            }
+            consumer.accept(card);
+        }
+    }
+
+    /**
+     * Files and sorted card numbers of a leaf folder
+     */
+    private static class Folder {
+        private final List<Path> files;
+        private final int[] ids;
+        // 1, if the first card number belongs to the last card of the previous folder
+        private int first;
+        // following folders that start with the back side of the last card of this folder
+        private final List<Folder> continuations = new ArrayList<>(1);
+
+        private Folder(List<Path> files, int[] ids) {
+            this.files = files;
+            this.ids = ids;
+        }
+
+        private int getLastId() {
+            return ids[ids.length - 1];
+        }
+    }
+
+    private Folder createFolder(List<Path> files) {
+        int[] ids = files.stream().map(this::getCardId).filter(Objects::nonNull).mapToInt(Integer::intValue).distinct().sorted().toArray();
+        return new Folder(files, ids);
+    }
+
+    private TreeMap<Integer, List<String>> groupFiles(List<Path> files) {
+        TreeMap<Integer, List<String>> cards = new TreeMap<>();
+        for (Path p : files) {
+            addFile(cards, p);
+        }
+        return cards;
+    }
+
+    private void addFile(Map<Integer, List<String>> contentMap, Path p) {
+        Integer id = getCardId(p);
+        if (id != null) {
+            // add file to the list grouped by the common number
+            contentMap.computeIfAbsent(id, k -> new ArrayList<>()).add(p.toString());
+        }
+    }
+
+    /**
+     * Get the number of the card a file belongs to, or null if the file is no card image or text
+     */
+    private Integer getCardId(Path p) {
+        String filename = p.getFileName().toString();
+        if (!CARD_FILE.matcher(filename).matches()) {
+            return null;
+        }
+        int id = Integer.parseInt(filename.substring(1, filename.indexOf(".")));
+        // if back side was scanned and we have an even number, than the common identifier is number -1
+        if (backsideScanned && (id % 2 == 0)) {
+            id = id - 1;
+        }
+        return id;
+    }
+
+    private KatzoomImportObject createCard(int id, List<String> files, int totalPosition, String letterName, int letterPosition, String trayName,
+            int trayPosition) {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setCatalog(catalog);
+        kip.setTotalPosition(totalPosition);
+
+        kip.setLetterName(letterName);
+        kip.setLetterPosition(letterPosition);
+
+        kip.setTrayName(trayName);
+        kip.setTrayPosition(trayPosition);
+
+        Collections.sort(files);
+        kip.setFiles(files);
+        String filename = files.get(0);
+        // get process title
+        kip.setLabel(filename.substring(filename.lastIndexOf("/") + 1, filename.indexOf(".")));
+        return kip;
+    }
+
+    private static int[] getStarts(List<LetterIndex> letters) {
+        int[] starts = new int[letters.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = letters.get(i).getStartPosition();
+        }
+        return starts;
+    }
+
+    private int[] getTrayStarts() {
+        int[] starts = new int[trayIndex.size()];
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = trayIndex.get(i).getStartPosition();
+        }
+        return starts;
+    }
+
+    /**
+     * Check that the start positions are in ascending order and the first entry contains the first position, so every position belongs to an
+     * entry.
+     */
+    private static boolean isSorted(int[] starts) {
+        if (starts[0] > 1) {
+            return false;
+        }
+        for (int i = 1; i < starts.length; i++) {
+            if (starts[i] < starts[i - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Find the entry of a position in sorted start positions: the first position belongs to the first entry, any other position to the last entry
+     * with a smaller start position.
+     */
+    private static int findIndex(int position, int[] starts) {
+        if (position == 1) {
+            return 0;
+        }
+        int low = 0;
+        int high = starts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] < position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Number of positions up to the given position that belong to the same entry. The entry contains all positions after its start position up to
+     * the start of the next entry, the first entry contains position 1 as well.
+     */
+    private static int getPositionInIndex(int position, int ordinal, int startPosition) {
+        int positionInIndex = position - Math.max(startPosition + 1, 2) + 1;
+        if (ordinal == 0) {
+            positionInIndex++;
+        }
+        return positionInIndex;
+    }
+
+    private static TrayIndex findTrayIndexForPosition(int position, List<TrayIndex> trayIndex) {
+        if (trayIndex.isEmpty()) {
+            return null;
+        }
+        TrayIndex current = null;
+        if (position == 1) {
+            current = trayIndex.get(0);
+        } else {
+            for (TrayIndex li : trayIndex) {
+                if (position > li.getStartPosition()) {
+                    current = li;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static LetterIndex findLetterIndexForPosition(int position, List<LetterIndex> letterIndex) {
+        LetterIndex current = null;
+        if (position == 1) {
+            current = letterIndex.get(0);
+        } else {
+            for (LetterIndex li : letterIndex) {
+                if (position > li.getStartPosition()) {
+                    current = li;
+                }
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,355 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Memory mapped navigation index of a catalogue. The file contains a fixed width entry for each card, ordered by the total position. Letter and tray
+ * names are stored once in a dictionary, the entries only contain their ordinal.
+ *
+ * <pre>
+ * header:  magic, version, number of entries, sort flags of id, letter and tray, offset of first entry
+ * dictionaries: letter names, tray names
+ * entries: id, total position, letter ordinal, tray ordinal, letter position, tray position
+ * </pre>
+ */
+public class PositionIndex {
+
+    private static final int MAGIC = 0x4B504F53;
+    private static final int VERSION = 1;
+
+    private static final int ENTRY_SIZE = 24;
+
+    // the field is in ascending order, cards or ranges can be found with a binary search
+    private static final int FLAG_SORTED_IDS = 1;
+    private static final int FLAG_SORTED_LETTERS = 2;
+    private static final int FLAG_SORTED_TRAYS = 4;
+    private static final int FLAG_SORTED_ALL = FLAG_SORTED_IDS | FLAG_SORTED_LETTERS | FLAG_SORTED_TRAYS;
+
+    // offsets of the fields inside of an entry
+    private static final int LETTER_OFFSET = 8;
+    private static final int TRAY_OFFSET = 12;
+    private static final int LETTER_POSITION_OFFSET = 16;
+    private static final int TRAY_POSITION_OFFSET = 20;
+
+    private final ByteBuffer entries;
+
+    private final int size;
+
+    private final int flags;
+
+    private final List<String> letters;
+
+    private final List<String> trays;
+
+    private PositionIndex(ByteBuffer entries, int size, int flags, List<String> letters, List<String> trays) {
+        this.entries = entries;
+        this.size = size;
+        this.flags = flags;
+        this.letters = letters;
+        this.trays = trays;
+    }
+
+    /**
+     * Write the index file for all cards of a catalogue
+     *
+     * @param indexFile the file to write
+     * @param cards the cards, ordered by their total position
+     * @throws IOException
+     */
+    public static void write(Path indexFile, List<KatzoomImportObject> cards) throws IOException {
+        Map<String, Integer> letterOrdinals = new HashMap<>();
+        Map<String, Integer> trayOrdinals = new HashMap<>();
+        List<String> letterNames = new ArrayList<>();
+        List<String> trayNames = new ArrayList<>();
+        int flags = FLAG_SORTED_ALL;
+        int lastId = Integer.MIN_VALUE;
+        int lastLetter = -1;
+        int lastTray = -1;
+        int[] letterOrdinal = new int[cards.size()];
+        int[] trayOrdinal = new int[cards.size()];
+        for (int i = 0; i < cards.size(); i++) {
+            KatzoomImportObject kip = cards.get(i);
+            letterOrdinal[i] = getOrdinal(kip.getLetterName(), letterOrdinals, letterNames);
+            trayOrdinal[i] = getOrdinal(kip.getTrayName(), trayOrdinals, trayNames);
+            if (kip.getId() <= lastId) {
+                flags &= ~FLAG_SORTED_IDS;
+            }
+            if (letterOrdinal[i] < lastLetter) {
+                flags &= ~FLAG_SORTED_LETTERS;
+            }
+            if (trayOrdinal[i] < lastTray) {
+                flags &= ~FLAG_SORTED_TRAYS;
+            }
+            lastId = kip.getId();
+            lastLetter = letterOrdinal[i];
+            lastTray = trayOrdinal[i];
+        }
+
+        byte[] dictionaries = encodeDictionaries(letterNames, trayNames);
+        int entriesOffset = 20 + dictionaries.length;
+
+        Files.createDirectories(indexFile.getParent());
+        Path tempFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(cards.size());
+            out.writeInt(flags);
+            out.writeInt(entriesOffset);
+            out.write(dictionaries);
+            for (int i = 0; i < cards.size(); i++) {
+                KatzoomImportObject kip = cards.get(i);
+                out.writeInt(kip.getId());
+                out.writeInt(kip.getTotalPosition());
+                out.writeInt(letterOrdinal[i]);
+                out.writeInt(trayOrdinal[i]);
+                out.writeInt(kip.getLetterPosition());
+                out.writeInt(kip.getTrayPosition());
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Map an existing index file into memory
+     *
+     * @param indexFile the index file
+     * @return the index
+     * @throws IOException if the file cannot be read or has an unknown format
+     */
+    public static PositionIndex open(Path indexFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Unknown position index format: " + indexFile);
+            }
+            if (buffer.getInt() != VERSION) {
+                throw new IOException("Unknown position index format: " + indexFile);
+            }
+            int size = buffer.getInt();
+            int flags = buffer.getInt();
+            int entriesOffset = buffer.getInt();
+            List<String> letters = readDictionary(buffer);
+            List<String> trays = readDictionary(buffer);
+            buffer.position(entriesOffset);
+            return new PositionIndex(buffer.slice(), size, flags, letters, trays);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the card at a total position
+     *
+     * @param position total position, starting with 1
+     * @return the card or null, if the position is outside of the catalogue
+     */
+    public Entry getByPosition(int position) {
+        if (position < 1 || position > size) {
+            return null;
+        }
+        return readEntry(position - 1);
+    }
+
+    /**
+     * Find a card by its id
+     *
+     * @param id the card id
+     * @return the card or null, if the id does not exist
+     */
+    public Entry findById(int id) {
+        if ((flags & FLAG_SORTED_IDS) == 0) {
+            for (int i = 0; i < size; i++) {
+                if (getInt(i, 0) == id) {
+                    return readEntry(i);
+                }
+            }
+            return null;
+        }
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int current = getInt(mid, 0);
+            if (current < id) {
+                low = mid + 1;
+            } else if (current > id) {
+                high = mid - 1;
+            } else {
+                return readEntry(mid);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the first and last total position of all cards of a letter
+     *
+     * @param letter name of the letter
+     * @return first and last position or null, if the letter does not exist
+     */
+    public int[] getLetterRange(String letter) {
+        return findRange(letters.indexOf(letter), LETTER_OFFSET, FLAG_SORTED_LETTERS);
+    }
+
+    /**
+     * Get the first and last total position of all cards of a tray
+     *
+     * @param tray name of the tray
+     * @return first and last position or null, if the tray does not exist
+     */
+    public int[] getTrayRange(String tray) {
+        return findRange(trays.indexOf(tray), TRAY_OFFSET, FLAG_SORTED_TRAYS);
+    }
+
+    /**
+     * Get the card at a position within a tray
+     *
+     * @param tray name of the tray
+     * @param trayPosition position inside of the tray, starting with 1
+     * @return the card or null, if the tray or position does not exist
+     */
+    public Entry getByTrayPosition(String tray, int trayPosition) {
+        int[] range = getTrayRange(tray);
+        if (range == null) {
+            return null;
+        }
+        // positions inside of a tray are consecutive
+        Entry candidate = getByPosition(range[0] + trayPosition - 1);
+        if (candidate != null && candidate.getTrayName().equals(tray) && candidate.getTrayPosition() == trayPosition) {
+            return candidate;
+        }
+        for (int position = range[0]; position <= range[1]; position++) {
+            Entry entry = getByPosition(position);
+            if (entry.getTrayName().equals(tray) && entry.getTrayPosition() == trayPosition) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private int[] findRange(int ordinal, int fieldOffset, int sortedFlag) {
+        if (ordinal < 0) {
+            return null;
+        }
+        int first;
+        int last;
+        if ((flags & sortedFlag) != 0) {
+            first = lowerBound(ordinal, fieldOffset);
+            last = lowerBound(ordinal + 1, fieldOffset) - 1;
+        } else {
+            first = -1;
+            last = -1;
+            for (int i = 0; i < size; i++) {
+                if (getInt(i, fieldOffset) == ordinal) {
+                    if (first == -1) {
+                        first = i;
+                    }
+                    last = i;
+                }
+            }
+        }
+        if (first < 0 || first > last) {
+            return null;
+        }
+        return new int[] { first + 1, last + 1 };
+    }
+
+    /**
+     * find the first entry with an ordinal greater than or equal to the given value
+     */
+    private int lowerBound(int ordinal, int fieldOffset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (getInt(mid, fieldOffset) < ordinal) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private Entry readEntry(int index) {
+        int letterOrdinal = getInt(index, LETTER_OFFSET);
+        int trayOrdinal = getInt(index, TRAY_OFFSET);
+        return new Entry(getInt(index, 0), getInt(index, 4), letterOrdinal < 0 ? "" : letters.get(letterOrdinal),
+                getInt(index, LETTER_POSITION_OFFSET), trayOrdinal < 0 ? "" : trays.get(trayOrdinal), getInt(index, TRAY_POSITION_OFFSET));
+    }
+
+    private int getInt(int index, int fieldOffset) {
+        return entries.getInt(index * ENTRY_SIZE + fieldOffset);
+    }
+
+    private static int getOrdinal(String name, Map<String, Integer> ordinals, List<String> names) {
+        if (name == null || name.isEmpty()) {
+            return -1;
+        }
+        Integer ordinal = ordinals.get(name);
+        if (ordinal == null) {
+            ordinal = names.size();
+            ordinals.put(name, ordinal);
+            names.add(name);
+        }
+        return ordinal;
+    }
+
+    private static byte[] encodeDictionaries(List<String> letterNames, List<String> trayNames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (List<String> names : List.of(letterNames, trayNames)) {
+                out.writeInt(names.size());
+                for (String name : names) {
+                    byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+                    out.writeShort(encoded.length);
+                    out.write(encoded);
+                }
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<String> readDictionary(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] encoded = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(encoded);
+            names.add(new String(encoded, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Entry {
+        private int id;
+        private int totalPosition;
+        private String letterName;
+        private int letterPosition;
+        private String trayName;
+        private int trayPosition;
+    }
+}
@@ -0,0 +1,99 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+
+/**
+ * Checks a batch of process titles against the existing processes before the import starts. All existing titles are loaded once into a bloom
+ * filter. Only the titles of the batch that hit the filter are looked up again, so the existing titles are read a single time and no large exact
+ * set of all titles is kept in memory.
+ */
+public class ProcessTitleCheck {
+
+    /**
+     * Source of all existing process titles
+     */
+    public interface TitleSource {
+
+        /**
+         * @return the number of existing titles, used to size the filter
+         */
+        long countTitles() throws IOException;
+
+        /**
+         * hand over each existing title to the consumer
+         */
+        void readTitles(Consumer<String> consumer) throws IOException;
+
+        /**
+         * look up some titles
+         *
+         * @param titles the titles to look up
+         * @return the titles that exist
+         */
+        Set<String> findTitles(Collection<String> titles) throws IOException;
+    }
+
+    private final TitleSource source;
+
+    private final double falsePositiveProbability;
+
+    // titles of the batch that already exist as process
+    @Getter
+    private Set<String> existingTitles = new LinkedHashSet<>();
+
+    // titles used more than once within the batch
+    @Getter
+    private Set<String> duplicateTitles = new LinkedHashSet<>();
+
+    public ProcessTitleCheck(TitleSource source, double falsePositiveProbability) {
+        this.source = source;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * Check all titles of the batch
+     * 
+     * @param titles the new process titles
+     * @return true, if no title collides with an existing process or another title of the batch
+     * @throws IOException if the existing titles cannot be read
+     */
+    public boolean check(List<String> titles) throws IOException {
+        existingTitles = new LinkedHashSet<>();
+        duplicateTitles = new LinkedHashSet<>();
+
+        Set<String> batch = new HashSet<>();
+        for (String title : titles) {
+            if (!batch.add(title)) {
+                duplicateTitles.add(title);
+            }
+        }
+
+        BloomFilter filter = new BloomFilter(source.countTitles(), falsePositiveProbability);
+        source.readTitles(filter::add);
+
+        Set<String> candidates = new HashSet<>();
+        for (String title : batch) {
+            if (filter.mightContain(title)) {
+                candidates.add(title);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            // remove false positives
+            Set<String> confirmed = source.findTitles(candidates);
+            for (String title : titles) {
+                if (confirmed.contains(title)) {
+                    existingTitles.add(title);
+                }
+            }
+        }
+        return existingTitles.isEmpty() && duplicateTitles.isEmpty();
+    }
+}
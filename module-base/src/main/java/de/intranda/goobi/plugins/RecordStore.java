@@ -0,0 +1,213 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.goobi.production.importer.Record;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * List of records that keeps only the first records in memory. As soon as the threshold is reached, all further records are stored as compact binary
+ * entries in a memory mapped temporary file and are restored on access. The entries use the format of {@link KatzoomImportObjectCodec}.
+ *
+ * Records can only be added, the list is read-only otherwise. The objects returned for stored entries are new instances on every access, changes
+ * to them are not kept. {@link #close()} deletes the file and releases the mapping, the list cannot be used afterwards.
+ */
+@Log4j2
+public class RecordStore extends AbstractList<Record> implements Closeable {
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int threshold;
+
+    private final List<Record> recordsInMemory = new ArrayList<>();
+
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    // segment number in the upper and position in the lower 32 bit
+    private long[] offsets = new long[1024];
+
+    private int storedRecords;
+
+    private Path storeFile;
+
+    private long storeFileLength;
+
+    private boolean closed;
+
+    // names and folders are shared by all stored records
+    private final KatzoomImportObjectCodec codec = new KatzoomImportObjectCodec();
+
+    /**
+     *
+     * @param threshold number of records to keep in memory
+     */
+    public RecordStore(int threshold) {
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean add(Record rec) {
+        checkOpen();
+        if (recordsInMemory.size() < threshold) {
+            recordsInMemory.add(rec);
+        } else {
+            try {
+                store(rec);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Record get(int index) {
+        checkOpen();
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (index < recordsInMemory.size()) {
+            return recordsInMemory.get(index);
+        }
+        long offset = offsets[index - recordsInMemory.size()];
+        ByteBuffer buffer = segments.get((int) (offset >>> 32)).duplicate();
+        buffer.position((int) offset);
+        byte[] data = new byte[buffer.getInt()];
+        buffer.get(data);
+        try {
+            return decode(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public int size() {
+        return recordsInMemory.size() + storedRecords;
+    }
+
+    /**
+     * @return number of records stored in the temporary file
+     */
+    public int getStoredRecords() {
+        return storedRecords;
+    }
+
+    /**
+     * @return the temporary file or null, if no record was stored yet
+     */
+    Path getStoreFile() {
+        return storeFile;
+    }
+
+    /**
+     * Delete the temporary file and release the mapped segments. Further access to the list fails.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        // the file stays locked on some platforms as long as it is mapped
+        for (MappedByteBuffer segment : segments) {
+            unmap(segment);
+        }
+        segments.clear();
+        recordsInMemory.clear();
+        storedRecords = 0;
+        storeFileLength = 0;
+        if (storeFile != null) {
+            try {
+                Files.deleteIfExists(storeFile);
+            } catch (IOException e) {
+                log.error(e);
+            }
+            storeFile = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Record store is closed");
+        }
+    }
+
+    /**
+     * Release a mapping without waiting for the garbage collector. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(field.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // the mapping is released by the garbage collector
+            log.debug("Cannot release mapped segment: {}", e.getMessage());
+        }
+    }
+
+    private void store(Record rec) throws IOException {
+        byte[] data = encode(rec);
+        MappedByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.remaining() < data.length + 4) {
+            segment = createSegment(Math.max(SEGMENT_SIZE, data.length + 4));
+        }
+        if (storedRecords == offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[storedRecords++] = ((long) (segments.size() - 1) << 32) | segment.position();
+        segment.putInt(data.length);
+        segment.put(data);
+    }
+
+    private MappedByteBuffer createSegment(int size) throws IOException {
+        if (storeFile == null) {
+            storeFile = Files.createTempFile("katzoom-records", ".bin");
+            storeFile.toFile().deleteOnExit();
+        }
+        try (FileChannel channel = FileChannel.open(storeFile, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, storeFileLength, size);
+            storeFileLength += size;
+            segments.add(segment);
+            return segment;
+        }
+    }
+
+    private byte[] encode(Record rec) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeUTF(rec.getId());
+            codec.write((KatzoomImportObject) rec.getObject(), out);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Record decode(byte[] data) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+            Record rec = new Record();
+            rec.setId(in.readUTF());
+            rec.setData(rec.getId());
+            rec.setObject(codec.read(in));
+            return rec;
+        }
+    }
+}
@@ -0,0 +1,413 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Distributes the import of a catalogue to several nodes. The cards are split into shards of consecutive positions, each node claims a shard by
+ * creating a lock file in a shared coordination folder and imports only the cards of its shards. The lock file is touched regularly, a claim that
+ * was not touched within the timeout is taken over by the next node that reaches the shard. The imported cards of a shard are written into a result
+ * file, the node that finds all shards finished merges the results.
+ *
+ * <pre>
+ * shards.tsv                     first and last position of each shard, written by the first node
+ * shard-00001.lock.0             claim of a node, the number is increased with every takeover
+ * shard-00001.done               cards of a finished shard
+ * merge.lock                     claim of the node that merges the results
+ * </pre>
+ */
+@Log4j2
+public class ShardCoordinator {
+
+    private static final String PLAN_FILE = "shards.tsv";
+    private static final String MERGE_LOCK = "merge.lock";
+
+    private final Path folder;
+
+    @Getter
+    private final String nodeName;
+
+    private final long timeout;
+
+    // first and last position of each shard, ordered by position
+    @Getter
+    private List<int[]> shards;
+
+    private int currentShard = -1;
+    private int currentGeneration;
+    private boolean claimed;
+    private long lastHeartbeat;
+
+    private Path currentResultFile;
+    private DataOutputStream currentResult;
+    private KatzoomImportObjectCodec currentCodec;
+
+    /**
+     *
+     * @param folder coordination folder of the catalogue, shared by all nodes
+     * @param nodeName unique name of this node
+     * @param timeout time in milliseconds after which the claim of another node is considered as abandoned
+     */
+    public ShardCoordinator(Path folder, String nodeName, long timeout) {
+        this.folder = folder;
+        this.nodeName = nodeName;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Split the cards into shards, one shard for each tray. Returns position ranges, if the catalogue has no trays.
+     *
+     * @param cards all cards of the catalogue, ordered by position
+     * @param shardSize number of positions of a shard, used if the catalogue has no trays
+     * @return first and last position of each shard
+     */
+    public static List<int[]> planTrayShards(List<KatzoomImportObject> cards, int shardSize) {
+        List<int[]> result = new ArrayList<>();
+        String currentTray = null;
+        for (KatzoomImportObject kip : cards) {
+            String tray = kip.getTrayName() == null ? "" : kip.getTrayName();
+            if (!tray.equals(currentTray) || result.isEmpty()) {
+                result.add(new int[] { kip.getTotalPosition(), kip.getTotalPosition() });
+                currentTray = tray;
+            } else {
+                result.get(result.size() - 1)[1] = kip.getTotalPosition();
+            }
+        }
+        if (result.size() == 1 && currentTray.isEmpty()) {
+            return planRangeShards(cards, shardSize);
+        }
+        return result;
+    }
+
+    /**
+     * Split the cards into shards with a fixed number of positions
+     *
+     * @param cards all cards of the catalogue, ordered by position
+     * @param shardSize number of positions of a shard
+     * @return first and last position of each shard
+     */
+    public static List<int[]> planRangeShards(List<KatzoomImportObject> cards, int shardSize) {
+        List<int[]> result = new ArrayList<>();
+        if (cards.isEmpty()) {
+            return result;
+        }
+        int size = Math.max(1, shardSize);
+        int last = cards.get(cards.size() - 1).getTotalPosition();
+        for (int first = cards.get(0).getTotalPosition(); first <= last; first += size) {
+            result.add(new int[] { first, Math.min(last, first + size - 1) });
+        }
+        return result;
+    }
+
+    /**
+     * Use the shards of the coordination folder. If no node has written them yet, the given shards are written.
+     *
+     * @param proposedShards shards to use, if the catalogue was not split yet
+     * @throws IOException
+     */
+    public void init(List<int[]> proposedShards) throws IOException {
+        Files.createDirectories(folder);
+        Path planFile = folder.resolve(PLAN_FILE);
+        if (!Files.exists(planFile)) {
+            Path tempFile = folder.resolve(PLAN_FILE + "." + nodeName + ".tmp");
+            List<String> lines = new ArrayList<>(proposedShards.size());
+            for (int[] shard : proposedShards) {
+                lines.add(shard[0] + "\t" + shard[1]);
+            }
+            Files.write(tempFile, lines, StandardCharsets.UTF_8);
+            try {
+                // the link fails, if another node was faster, a complete file is visible in any case
+                Files.createLink(planFile, tempFile);
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Shards of {} were written by another node", folder);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        shards = new ArrayList<>();
+        for (String line : Files.readAllLines(planFile, StandardCharsets.UTF_8)) {
+            String[] values = line.split("\t");
+            if (values.length == 2) {
+                shards.add(new int[] { Integer.parseInt(values[0]), Integer.parseInt(values[1]) });
+            }
+        }
+    }
+
+    /**
+     * Find the shard of a position
+     *
+     * @param position total position of a card
+     * @return number of the shard, or -1, if the position does not belong to any shard
+     */
+    public int getShard(int position) {
+        int low = 0;
+        int high = shards.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int[] shard = shards.get(mid);
+            if (shard[1] < position) {
+                low = mid + 1;
+            } else if (shard[0] > position) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check whether a card belongs to another shard than the previous card. The next call of {@link #accept(KatzoomImportObject)} with this card
+     * finishes the current shard.
+     *
+     * @param kip the card
+     * @return true, if the card starts a new shard
+     */
+    public boolean isNewShard(KatzoomImportObject kip) {
+        return getShard(kip.getTotalPosition()) != currentShard;
+    }
+
+    /**
+     * Decide whether this node imports a card. The cards must be passed in the order of their positions. When the first card of a shard is
+     * reached, the shard is claimed. The previous shard of this node is finished at the same time, so all its cards must be completed before.
+     *
+     * @param kip the card
+     * @return true, if the card belongs to a shard of this node
+     */
+    public boolean accept(KatzoomImportObject kip) {
+        int shard = getShard(kip.getTotalPosition());
+        if (shard != currentShard) {
+            finish();
+            currentShard = shard;
+            claimed = shard >= 0 && claim(shard);
+        }
+        if (!claimed) {
+            return false;
+        }
+        if (!isOwner()) {
+            log.warn("Shard {} of {} was taken over by another node, {} stops importing it", shard, folder, nodeName);
+            abort();
+            return false;
+        }
+        heartbeat();
+        return true;
+    }
+
+    /**
+     * Add an accepted card to the result of its shard, after it was imported. Cards of a shard that was given up in the meantime are ignored.
+     *
+     * @param kip the imported card
+     */
+    public void completed(KatzoomImportObject kip) {
+        if (!claimed || getShard(kip.getTotalPosition()) != currentShard) {
+            return;
+        }
+        try {
+            currentResult.writeBoolean(true);
+            currentCodec.write(kip, currentResult);
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    /**
+     * Finish the current shard of this node and publish its result
+     */
+    public void finish() {
+        if (!claimed) {
+            return;
+        }
+        claimed = false;
+        try {
+            currentResult.writeBoolean(false);
+            currentResult.close();
+            Files.move(currentResultFile, getDoneFile(currentShard), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.deleteIfExists(getLockFile(currentShard, currentGeneration));
+            log.info("Node {} finished shard {} of {}", nodeName, currentShard, folder);
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    /**
+     * Try to claim a shard. This succeeds, if the shard is not finished and either not claimed by any node or the claim is older than the timeout.
+     *
+     * @param shard number of the shard
+     * @return true, if this node owns the shard now
+     */
+    boolean claim(int shard) {
+        try {
+            if (Files.exists(getDoneFile(shard))) {
+                return false;
+            }
+            int generation = getLatestGeneration(shard);
+            if (generation >= 0) {
+                try {
+                    FileTime modified = Files.getLastModifiedTime(getLockFile(shard, generation));
+                    if (System.currentTimeMillis() - modified.toMillis() < timeout) {
+                        return false;
+                    }
+                    log.warn("Claim {} of shard {} of {} is older than the timeout, node {} takes it over", generation, shard, folder, nodeName);
+                } catch (NoSuchFileException e) {
+                    // released in the meantime, the shard is either finished or free again
+                }
+            }
+            Path lockFile = getLockFile(shard, generation + 1);
+            try {
+                Files.write(lockFile, nodeName.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                return false;
+            }
+            if (Files.exists(getDoneFile(shard))) {
+                // finished while the claim was created
+                Files.deleteIfExists(lockFile);
+                return false;
+            }
+            currentGeneration = generation + 1;
+            lastHeartbeat = System.currentTimeMillis();
+            currentCodec = new KatzoomImportObjectCodec();
+            currentResultFile = folder.resolve(getDoneFile(shard).getFileName() + "." + nodeName + ".tmp");
+            currentResult = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(currentResultFile)));
+            log.info("Node {} claimed shard {} of {}", nodeName, shard, folder);
+            return true;
+        } catch (IOException e) {
+            log.error(e);
+            return false;
+        }
+    }
+
+    /**
+     * Check that this node still owns the current shard: its lock file names this node and no other node took over or finished the shard.
+     */
+    private boolean isOwner() {
+        if (Files.exists(getLockFile(currentShard, currentGeneration + 1)) || Files.exists(getDoneFile(currentShard))) {
+            return false;
+        }
+        try {
+            byte[] owner = Files.readAllBytes(getLockFile(currentShard, currentGeneration));
+            return nodeName.equals(new String(owner, StandardCharsets.UTF_8));
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            log.error(e);
+            return false;
+        }
+    }
+
+    /**
+     * Touch the lock file, if the last heartbeat is older than a quarter of the timeout
+     */
+    private void heartbeat() {
+        long now = System.currentTimeMillis();
+        if (now - lastHeartbeat < timeout / 4) {
+            return;
+        }
+        try {
+            Files.setLastModifiedTime(getLockFile(currentShard, currentGeneration), FileTime.fromMillis(now));
+        } catch (IOException e) {
+            log.error(e);
+        }
+        lastHeartbeat = now;
+    }
+
+    /**
+     * give up the current shard without publishing a result
+     */
+    private void abort() {
+        claimed = false;
+        try {
+            currentResult.close();
+            Files.deleteIfExists(currentResultFile);
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    private int getLatestGeneration(int shard) throws IOException {
+        String prefix = getLockFile(shard, 0).getFileName().toString();
+        prefix = prefix.substring(0, prefix.length() - 1);
+        int latest = -1;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, prefix + "*")) {
+            for (Path lock : stream) {
+                latest = Math.max(latest, Integer.parseInt(lock.getFileName().toString().substring(prefix.length())));
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * @return true, if the results of all shards exist
+     */
+    public boolean isComplete() {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (!Files.exists(getDoneFile(shard))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Claim the merge of the results. Only one node gets the claim.
+     *
+     * @return true, if this node has to merge the results
+     */
+    public boolean claimMerge() {
+        try {
+            Files.createFile(folder.resolve(MERGE_LOCK));
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        } catch (IOException e) {
+            log.error(e);
+            return false;
+        }
+    }
+
+    /**
+     * Read the cards of all finished shards, ordered by position
+     *
+     * @param consumer receives the cards
+     * @throws IOException
+     */
+    public void readResults(Consumer<KatzoomImportObject> consumer) throws IOException {
+        for (int shard = 0; shard < shards.size(); shard++) {
+            Path doneFile = getDoneFile(shard);
+            if (!Files.exists(doneFile)) {
+                continue;
+            }
+            KatzoomImportObjectCodec codec = new KatzoomImportObjectCodec();
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(doneFile)))) {
+                while (in.readBoolean()) {
+                    consumer.accept(codec.read(in));
+                }
+            }
+        }
+    }
+
+    private Path getLockFile(int shard, int generation) {
+        return folder.resolve(String.format("shard-%05d.lock.%d", shard, generation));
+    }
+
+    private Path getDoneFile(int shard) {
+        return folder.resolve(String.format("shard-%05d.done", shard));
+    }
+}
@@ -0,0 +1,103 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000L;
+
+    @Test
+    public void testTargetLatency() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 8, 50);
+        assertEquals(1, limiter.getLimit());
+
+        // fast storage, limit grows up to the maximum
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(10 * MILLIS);
+        }
+        assertEquals(8, limiter.getLimit());
+        assertEquals(10, limiter.getAverageLatency(), 0.01);
+
+        // storage gets slow, limit drops down to the minimum
+        for (int i = 0; i < 40; i++) {
+            limiter.acquire();
+            limiter.release(200 * MILLIS);
+        }
+        assertEquals(1, limiter.getLimit());
+        assertEquals(200, limiter.getMaxLatency(), 0.01);
+        assertEquals(10, limiter.getMinLatency(), 0.01);
+        assertEquals(140, limiter.getNumberOfOperations());
+    }
+
+    @Test
+    public void testLatencyGradient() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 6, 0);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.release(10 * MILLIS);
+        }
+        assertEquals(6, limiter.getLimit());
+
+        // latency increases compared to the long term average
+        limiter.acquire();
+        limiter.release(100 * MILLIS);
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void testLimitIsRespected() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(2, 2, 1000);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 40; i++) {
+            executor.submit(() -> {
+                limiter.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(2);
+                    running.decrementAndGet();
+                });
+                return null;
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(40, limiter.getNumberOfOperations());
+    }
+
+    @Test
+    public void testInterruptedWhileWaiting() throws Exception {
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(1, 1, 1000);
+        // the only permit is taken
+        limiter.acquire();
+        AtomicInteger runs = new AtomicInteger();
+        AtomicInteger interrupted = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            try {
+                limiter.execute(runs::incrementAndGet);
+            } catch (InterruptedIOException e) {
+                if (Thread.currentThread().isInterrupted()) {
+                    interrupted.incrementAndGet();
+                }
+            }
+        });
+        thread.start();
+        thread.interrupt();
+        thread.join(10000);
+        assertEquals(0, runs.get());
+        assertEquals(1, interrupted.get());
+        assertEquals(1, limiter.getInFlight());
+    }
+}
@@ -0,0 +1,182 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class AtomicFileWriterTest {
+
+    private static final String CONTENT = "<mets:mets>" + String.join("", Collections.nCopies(1000, "<mets:file/>")) + "</mets:mets>";
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private Path folder;
+
+    @Before
+    public void setUp() {
+        folder = tempFolder.getRoot().toPath();
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        List<Integer> syncs = new ArrayList<>();
+        AtomicFileWriter writer = new AtomicFileWriter(3) {
+            @Override
+            protected void sync(Path path, boolean directory) throws IOException {
+                syncs.add(directory ? 1 : 0);
+                super.sync(path, directory);
+            }
+        };
+        for (int i = 1; i <= 7; i++) {
+            writer.write(folder.resolve("b" + i + ".xml"), this::writeComplete);
+            // the files are only visible after the batch is committed
+            assertEquals(i / 3 * 3, getVisibleFiles().size());
+        }
+        writer.close();
+        assertEquals(7, getVisibleFiles().size());
+        assertEquals(3, writer.getCommits());
+        assertEquals(7, writer.getCommittedFiles());
+        // one sync per file, one sync of the folder per batch
+        assertEquals(10, syncs.size());
+        assertEquals(3, syncs.stream().filter(s -> s == 1).count());
+        assertAllComplete();
+    }
+
+    @Test
+    public void testCrashWhileWriting() throws Exception {
+        AtomicFileWriter writer = new AtomicFileWriter(10);
+        writer.write(folder.resolve("b1.xml"), this::writeComplete);
+        try {
+            writer.write(folder.resolve("b2.xml"), this::writeHalf);
+            fail("Write did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // server stops before the batch is committed
+        assertTrue(getVisibleFiles().isEmpty());
+
+        // the next run removes the left over temporary file and writes everything again
+        assertEquals(1, AtomicFileWriter.removeTemporaryFiles(folder, System.currentTimeMillis() + 1000));
+        writer = new AtomicFileWriter(10);
+        writer.write(folder.resolve("b1.xml"), this::writeComplete);
+        writer.write(folder.resolve("b2.xml"), this::writeComplete);
+        writer.close();
+        assertEquals(2, getVisibleFiles().size());
+        assertAllComplete();
+        try (Stream<Path> files = Files.list(folder)) {
+            assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void testCrashDuringCommit() throws Exception {
+        Files.write(folder.resolve("b4.xml"), CONTENT.getBytes(StandardCharsets.UTF_8));
+        AtomicFileWriter writer = new AtomicFileWriter(5) {
+            private int renames;
+
+            @Override
+            protected void rename(Path source, Path target) throws IOException {
+                if (++renames == 3) {
+                    throw new IOException("simulated crash");
+                }
+                super.rename(source, target);
+            }
+        };
+        for (int i = 1; i <= 4; i++) {
+            writer.write(folder.resolve("b" + i + ".xml"), this::writeComplete);
+        }
+        try {
+            writer.commit();
+            fail("Commit did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // the renamed files are complete, the existing file was not replaced by an incomplete one
+        assertEquals(3, getVisibleFiles().size());
+        assertFalse(Files.exists(folder.resolve("b3.xml")));
+        assertAllComplete();
+        assertEquals(Arrays.asList(folder.resolve("b3.xml"), folder.resolve("b4.xml")), writer.getFailedFiles());
+        assertEquals(0, AtomicFileWriter.removeTemporaryFiles(folder, System.currentTimeMillis() + 1000));
+    }
+
+    @Test
+    public void testCommitFailsWhileWriting() throws Exception {
+        AtomicFileWriter writer = new AtomicFileWriter(3) {
+            @Override
+            protected void rename(Path source, Path target) throws IOException {
+                throw new IOException("simulated crash");
+            }
+        };
+        writer.write(folder.resolve("b1.xml"), this::writeComplete);
+        writer.write(folder.resolve("b2.xml"), this::writeComplete);
+        try {
+            writer.write(folder.resolve("b3.xml"), this::writeComplete);
+            fail("Write did not fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // the files written before in the same batch are lost as well
+        assertEquals(Arrays.asList(folder.resolve("b1.xml"), folder.resolve("b2.xml"), folder.resolve("b3.xml")), writer.getFailedFiles());
+        writer.commit();
+        assertTrue(writer.getFailedFiles().isEmpty());
+    }
+
+    @Test
+    public void testTemporaryFilesOfRunningImportAreKept() throws Exception {
+        Path leftOver = AtomicFileWriter.getTemporaryFile(folder.resolve("b1.xml"));
+        writeComplete(leftOver.toString());
+        Files.setLastModifiedTime(leftOver, FileTime.fromMillis(System.currentTimeMillis() - 3600000));
+        // written by another import after the start of the process
+        AtomicFileWriter writer = new AtomicFileWriter(10);
+        writer.write(folder.resolve("b2.xml"), this::writeComplete);
+
+        assertEquals(1, AtomicFileWriter.removeTemporaryFiles(folder, System.currentTimeMillis() - 60000));
+        assertFalse(Files.exists(leftOver));
+        writer.close();
+        assertEquals(1, getVisibleFiles().size());
+    }
+
+    private void writeComplete(String filename) throws IOException {
+        Files.write(Paths.get(filename), CONTENT.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeHalf(String filename) throws IOException {
+        try (OutputStream out = Files.newOutputStream(Paths.get(filename))) {
+            out.write(CONTENT.substring(0, CONTENT.length() / 2).getBytes(StandardCharsets.UTF_8));
+            throw new IOException("simulated crash");
+        }
+    }
+
+    private List<Path> getVisibleFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".xml")).collect(Collectors.toList());
+        }
+    }
+
+    private void assertAllComplete() throws IOException {
+        for (Path file : getVisibleFiles()) {
+            assertEquals(CONTENT, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        }
+    }
+}
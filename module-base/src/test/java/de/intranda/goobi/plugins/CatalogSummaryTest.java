@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.BitSet;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogSummaryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSummary() throws Exception {
+        String resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+        Path catalogue = Paths.get(resourcesFolder, "data", "nka BKA Nominal");
+        Path statisticsFile = folder.getRoot().toPath().resolve("nka BKA Nominal").resolve("katzoom-stats.properties");
+
+        CatalogSummary summary = CatalogSummary.create("nka BKA Nominal", catalogue, statisticsFile, true);
+        assertEquals("nka BKA Nominal", summary.getName());
+        assertTrue(summary.isBacksideScanned());
+        assertEquals(122411, summary.getNumberOfCards());
+        assertEquals(25, summary.getNumberOfLetters());
+        assertEquals(139, summary.getNumberOfTrays());
+        assertEquals(244822, summary.getNumberOfImages());
+        assertEquals(0, summary.getTix());
+        assertEquals(-1, summary.getTotalBytes());
+        assertEquals(CatalogSummary.ImportState.NEW, summary.getImportState());
+
+        // scanned catalogue
+        CatalogStatistics statistics = CatalogStatistics.load(statisticsFile);
+        statistics.addScan(500, 123456);
+        statistics.save(statisticsFile);
+        summary = CatalogSummary.create("nka BKA Nominal", catalogue, statisticsFile, true);
+        assertEquals(123456, summary.getTotalBytes());
+        assertEquals(CatalogSummary.ImportState.SCANNED, summary.getImportState());
+
+        // the distinct imported cards of all runs are counted
+        statistics = CatalogStatistics.load(statisticsFile);
+        statistics.addImport(positions(1, 200), 3);
+        statistics.save(statisticsFile);
+        summary = CatalogSummary.create("nka BKA Nominal", catalogue, statisticsFile, true);
+        assertEquals(200, summary.getImportedCards());
+        assertEquals(3, summary.getFailedCards());
+        assertEquals(CatalogSummary.ImportState.PARTLY_IMPORTED, summary.getImportState());
+
+        // a second run imports some of the cards again
+        statistics = CatalogStatistics.load(statisticsFile);
+        statistics.addImport(positions(151, 400), 0);
+        statistics.save(statisticsFile);
+        summary = CatalogSummary.create("nka BKA Nominal", catalogue, statisticsFile, true);
+        assertEquals(400, summary.getImportedCards());
+        assertEquals(250, CatalogStatistics.load(statisticsFile).getLastRunImportedCards());
+        assertEquals(CatalogSummary.ImportState.PARTLY_IMPORTED, summary.getImportState());
+
+        statistics = CatalogStatistics.load(statisticsFile);
+        statistics.addImport(positions(1, 500), 0);
+        statistics.save(statisticsFile);
+        summary = CatalogSummary.create("nka BKA Nominal", catalogue, statisticsFile, true);
+        assertEquals(500, summary.getImportedCards());
+        assertTrue(summary.getLastImport() > 0);
+        assertEquals(CatalogSummary.ImportState.IMPORTED, summary.getImportState());
+    }
+
+    private static BitSet positions(int first, int last) {
+        BitSet positions = new BitSet();
+        positions.set(first, last + 1);
+        return positions;
+    }
+}
@@ -0,0 +1,180 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DerivativeStageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final FileCopier COPIER = (source, destination) -> {
+        Files.createDirectories(destination.getParent());
+        Files.copy(source, destination);
+    };
+
+    @Test
+    public void testProcessManifest() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path manifestFolder = root.resolve("derivatives");
+        Path manifest;
+        try (DerivativeStage.ManifestWriter writer = new DerivativeStage.ManifestWriter(manifestFolder)) {
+            manifest = writer.getManifest();
+            for (int i = 1; i <= 3; i++) {
+                String title = "b000000" + i;
+                Path png = Files.write(root.resolve(title + ".png"), new byte[100]);
+                Path pdf = Files.write(root.resolve(title + ".pdf"), new byte[200]);
+                writer.add(title, new CopyTask(png, Paths.get("images", title + "_media", title + ".png")));
+                writer.add(title, new CopyTask(pdf, Paths.get("ocr", title + "_pdf", title + ".pdf")));
+            }
+            // the manifest is only visible when it is complete
+            assertFalse(Files.exists(manifest));
+        }
+        assertTrue(Files.exists(manifest));
+
+        // the process of the last card is not created yet
+        Map<String, Path> processes = new ConcurrentHashMap<>();
+        processes.put("b0000001", root.resolve("metadata/1"));
+        processes.put("b0000002", root.resolve("metadata/2"));
+        try (DerivativeStage stage = new DerivativeStage(2, COPIER, (title, created) -> processes.get(title), 0, 0)) {
+            assertEquals(2, stage.process(manifest));
+            assertEquals(4, stage.getCopiedFiles().get());
+            assertTrue(Files.exists(root.resolve("metadata/1/images/b0000001_media/b0000001.png")));
+            assertTrue(Files.exists(root.resolve("metadata/2/ocr/b0000002_pdf/b0000002.pdf")));
+            assertEquals(2, Files.readAllLines(manifest).size());
+
+            processes.put("b0000003", root.resolve("metadata/3"));
+            assertEquals(0, stage.process(manifest));
+            assertTrue(Files.exists(root.resolve("metadata/3/images/b0000003_media/b0000003.png")));
+            assertFalse(Files.exists(manifest));
+        }
+    }
+
+    @Test
+    public void testOlderProcessIsIgnored() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path manifestFolder = root.resolve("derivatives");
+        Path png = Files.write(root.resolve("b0000001.png"), new byte[100]);
+        // a process with the same title exists before the import
+        long existing = System.currentTimeMillis() - 60000;
+        Path manifest;
+        try (DerivativeStage.ManifestWriter writer = new DerivativeStage.ManifestWriter(manifestFolder)) {
+            manifest = writer.getManifest();
+            writer.add("b0000001", new CopyTask(png, Paths.get("images", "b0000001_media", "b0000001.png")));
+        }
+
+        Map<Long, Path> processes = new ConcurrentHashMap<>();
+        processes.put(existing, root.resolve("metadata/1"));
+        DerivativeStage.ProcessFolderResolver resolver = (title, createdAfter) -> processes.entrySet()
+                .stream()
+                .filter(e -> e.getKey() >= createdAfter)
+                .map(Map.Entry::getValue)
+                .findFirst()
+                .orElse(null);
+        try (DerivativeStage stage = new DerivativeStage(1, COPIER, resolver, 0, 0)) {
+            assertEquals(1, stage.process(manifest));
+            assertFalse(Files.exists(root.resolve("metadata/1/images")));
+
+            // the process of the import
+            processes.put(System.currentTimeMillis(), root.resolve("metadata/2"));
+            assertEquals(0, stage.process(manifest));
+            assertTrue(Files.exists(root.resolve("metadata/2/images/b0000001_media/b0000001.png")));
+            assertFalse(Files.exists(root.resolve("metadata/1/images")));
+        }
+    }
+
+    @Test
+    public void testRetryInBackground() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path manifestFolder = root.resolve("derivatives");
+        Path png = Files.write(root.resolve("b0000001.png"), new byte[100]);
+        try (DerivativeStage.ManifestWriter writer = new DerivativeStage.ManifestWriter(manifestFolder)) {
+            writer.add("b0000001", new CopyTask(png, Paths.get("images", "b0000001_media", "b0000001.png")));
+        }
+
+        Map<String, Path> processes = new ConcurrentHashMap<>();
+        try (DerivativeStage stage = new DerivativeStage(1, COPIER, (title, created) -> processes.get(title), 50, 100)) {
+            stage.scheduleAll(manifestFolder);
+            Thread.sleep(200);
+            assertEquals(0, stage.getCopiedFiles().get());
+
+            // the process is created after the import
+            processes.put("b0000001", root.resolve("metadata/1"));
+            for (int i = 0; i < 100 && stage.getCopiedFiles().get() == 0; i++) {
+                Thread.sleep(50);
+            }
+            assertEquals(1, stage.getCopiedFiles().get());
+            assertTrue(Files.exists(root.resolve("metadata/1/images/b0000001_media/b0000001.png")));
+        }
+    }
+
+    @Test
+    public void testRetriesRestartAfterProgress() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path manifestFolder = root.resolve("derivatives");
+        try (DerivativeStage.ManifestWriter writer = new DerivativeStage.ManifestWriter(manifestFolder)) {
+            for (int i = 1; i <= 3; i++) {
+                Path png = Files.write(root.resolve("b000000" + i + ".png"), new byte[100]);
+                writer.add("b000000" + i, new CopyTask(png, Paths.get("images", "b000000" + i + "_media", "b000000" + i + ".png")));
+            }
+        }
+
+        // each pass creates the process of one more card
+        Map<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+        DerivativeStage.ProcessFolderResolver resolver = (title, created) -> {
+            int card = Integer.parseInt(title.substring(1));
+            int request = requests.computeIfAbsent(title, k -> new AtomicInteger()).incrementAndGet();
+            return request >= card ? root.resolve("metadata/" + card) : null;
+        };
+        // a single retry is enough, as long as every pass copies something
+        try (DerivativeStage stage = new DerivativeStage(1, COPIER, resolver, 20, 1)) {
+            stage.scheduleAll(manifestFolder);
+            for (int i = 0; i < 100 && stage.getCopiedFiles().get() < 3; i++) {
+                Thread.sleep(20);
+            }
+            assertEquals(3, stage.getCopiedFiles().get());
+        }
+    }
+
+    @Test
+    public void testManifestIsScheduledOnce() throws Exception {
+        Path root = folder.getRoot().toPath();
+        Path manifestFolder = root.resolve("derivatives");
+        Path png = Files.write(root.resolve("b0000001.png"), new byte[100]);
+        Path manifest;
+        try (DerivativeStage.ManifestWriter writer = new DerivativeStage.ManifestWriter(manifestFolder)) {
+            manifest = writer.getManifest();
+            writer.add("b0000001", new CopyTask(png, Paths.get("images", "b0000001_media", "b0000001.png")));
+        }
+
+        AtomicInteger passes = new AtomicInteger();
+        try (DerivativeStage stage = new DerivativeStage(1, COPIER, (title, created) -> {
+            passes.incrementAndGet();
+            return null;
+        }, 20, 2)) {
+            stage.schedule(manifest);
+            stage.scheduleAll(manifestFolder);
+            stage.scheduleAll(manifestFolder);
+            Thread.sleep(300);
+            // the first pass and two retries
+            assertEquals(3, passes.get());
+
+            // after the retries are given up, the manifest can be scheduled again
+            stage.scheduleAll(manifestFolder);
+            Thread.sleep(300);
+            assertEquals(6, passes.get());
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class EadNodeIndexTest {
+
+    private static class Node {
+        private final String label;
+        private final List<Node> subNodes = new ArrayList<>();
+        private int reads;
+
+        private Node(String label) {
+            this.label = label;
+        }
+
+        private Node add(String name) {
+            Node node = new Node(name);
+            subNodes.add(node);
+            return node;
+        }
+
+        private List<Node> getSubNodes() {
+            reads++;
+            return subNodes;
+        }
+    }
+
+    @Test
+    public void testFindExistingNodes() {
+        Node root = new Node("nka");
+        Node letterA = root.add("A");
+        Node letterB = root.add("B");
+        Node tray = letterA.add("A 1");
+        Node card = tray.add("nka_1");
+        // a second node with the same label is ignored
+        letterA.add("A 1");
+
+        EadNodeIndex<Node> index = new EadNodeIndex<>(Node::getSubNodes, n -> n.label);
+        assertSame(letterA, index.find(root, "A"));
+        assertSame(letterB, index.find(root, "B"));
+        assertSame(tray, index.find(letterA, "A 1"));
+        assertSame(card, index.find(tray, "nka_1"));
+        assertNull(index.find(tray, "nka_2"));
+
+        // each node is read only once, untouched nodes are not read
+        index.find(root, "C");
+        assertEquals(1, root.reads);
+        assertEquals(1, letterA.reads);
+        assertEquals(0, letterB.reads);
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void testAddNode() {
+        Node root = new Node("nka");
+        EadNodeIndex<Node> index = new EadNodeIndex<>(Node::getSubNodes, n -> n.label);
+        assertNull(index.find(root, "A"));
+
+        Node letter = root.add("A");
+        index.add(root, "A", letter);
+        assertSame(letter, index.find(root, "A"));
+
+        // new nodes have no sub nodes yet
+        Node card = letter.add("nka_1");
+        index.add(letter, "nka_1", card);
+        assertSame(card, index.find(letter, "nka_1"));
+        assertEquals(1, root.reads);
+    }
+}
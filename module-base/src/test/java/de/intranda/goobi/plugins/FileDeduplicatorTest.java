@@ -0,0 +1,53 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileDeduplicatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeduplication() throws Exception {
+        Path source = folder.newFolder("source").toPath();
+        Path target = folder.newFolder("target").toPath();
+        Path blobs = folder.getRoot().toPath().resolve("blobs");
+
+        byte[] blank = new byte[10000];
+        Path front = Files.write(source.resolve("b0000001.tif"), "front side".getBytes());
+        Path back1 = Files.write(source.resolve("b0000002.tif"), blank);
+        Path back2 = Files.write(source.resolve("b0000004.tif"), blank);
+
+        FileDeduplicator deduplicator = new FileDeduplicator(blobs);
+        deduplicator.copy(front, target.resolve("b0000001.tif"));
+        deduplicator.copy(back1, target.resolve("b0000002.tif"));
+        deduplicator.copy(back2, target.resolve("b0000004.tif"));
+        // copy again into an existing destination
+        deduplicator.copy(back2, target.resolve("b0000004.tif"));
+
+        assertEquals(2, deduplicator.getUniqueFiles());
+        assertEquals(2, deduplicator.getDuplicateFiles());
+        assertEquals(20000, deduplicator.getSavedBytes());
+
+        assertArrayEquals("front side".getBytes(), Files.readAllBytes(target.resolve("b0000001.tif")));
+        assertArrayEquals(blank, Files.readAllBytes(target.resolve("b0000004.tif")));
+        assertTrue(Files.isSameFile(target.resolve("b0000002.tif"), target.resolve("b0000004.tif")));
+        assertFalse(Files.isSameFile(target.resolve("b0000001.tif"), target.resolve("b0000002.tif")));
+
+        // two different contents in the blob folder
+        try (Stream<Path> files = Files.walk(blobs)) {
+            assertEquals(2, files.filter(Files::isRegularFile).count());
+        }
+    }
+}
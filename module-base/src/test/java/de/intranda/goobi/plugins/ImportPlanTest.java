@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.goobi.production.importer.Record;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportPlanTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        Path catalogue = folder.newFolder("nka BKA Nominal", "m001", "z001", "h001").toPath();
+        Path tif = Files.write(catalogue.resolve("b0000001.tif"), new byte[1000]);
+        Path backside = Files.write(catalogue.resolve("b0000002.tif"), new byte[500]);
+        Path txt = Files.write(catalogue.resolve("b0000001.txt"), new byte[20]);
+
+        Path planFile = folder.getRoot().toPath().resolve("plan/katzoom-plan.tsv");
+        try (ImportPlan.Writer writer = new ImportPlan.Writer(planFile)) {
+            KatzoomImportObject kip = createCard(1, "A", "Ahammer", tif, txt, backside);
+            List<CopyTask> tasks = new ArrayList<>();
+            tasks.add(new CopyTask(tif, Paths.get("b0000001/images/b0000001_master/b0000001.tif")));
+            tasks.add(new CopyTask(backside, Paths.get("b0000001/images/b0000001_master/b0000002.tif")));
+            tasks.add(new CopyTask(txt, Paths.get("b0000001/ocr/b0000001txt/b0000001.txt")));
+            writer.writeCard(kip, tasks);
+
+            assertEquals(1, writer.getNumberOfCards());
+            assertEquals(2, writer.getNumberOfPages());
+            assertEquals(1520, writer.getNumberOfBytes());
+        }
+
+        List<String> lines = Files.readAllLines(planFile);
+        // header, letter node, tray node, card, total
+        assertEquals(5, lines.size());
+        assertEquals("ead\tletter\tnka BKA Nominal/A", lines.get(1));
+        assertEquals("ead\ttray\tnka BKA Nominal/A/Ahammer", lines.get(2));
+        assertTrue(lines.get(3).contains("\t2\t1520\tnka BKA Nominal/A/Ahammer/b0000001\t"));
+        assertEquals("total\t1\t2\t1520", lines.get(4));
+
+        List<Record> records = new ArrayList<>();
+        ImportPlan.read(planFile, records);
+        assertEquals(1, records.size());
+        assertEquals("1", records.get(0).getId());
+        KatzoomImportObject kip = (KatzoomImportObject) records.get(0).getObject();
+        assertEquals("b0000001", kip.getLabel());
+        assertEquals("nka BKA Nominal", kip.getCatalog());
+        assertEquals("Ahammer", kip.getTrayName());
+        assertEquals(3, kip.getTrayPosition());
+        assertEquals("A", kip.getAdminLetterName());
+        assertEquals(4, kip.getAdminLetterPosition());
+        assertEquals(Arrays.asList(tif.toString(), txt.toString(), backside.toString()), kip.getFiles());
+    }
+
+    private KatzoomImportObject createCard(int id, String letter, String tray, Path... files) {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setCatalog("nka BKA Nominal");
+        kip.setLabel("b000000" + id);
+        kip.setTotalPosition(id);
+        kip.setLetterName(letter);
+        kip.setLetterPosition(2);
+        kip.setTrayName(tray);
+        kip.setTrayPosition(3);
+        kip.setAdminLetterName(letter);
+        kip.setAdminLetterPosition(4);
+        List<String> fileNames = new ArrayList<>();
+        for (Path file : files) {
+            fileNames.add(file.toString());
+        }
+        kip.setFiles(fileNames);
+        return kip;
+    }
+}
@@ -0,0 +1,74 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+
+public class ImportTraceAnalyzerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAnalyzeRecording() throws Exception {
+        Path recordingFile = folder.getRoot().toPath().resolve("import.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable(CardImportEvent.NAME);
+            recording.start();
+
+            CardImportEvent.startScan("nka").finish(CardImportEvent.OK, 1000);
+            for (int i = 1; i <= 5; i++) {
+                KatzoomImportObject kip = new KatzoomImportObject();
+                kip.setCatalog("nka");
+                kip.setId(i * 2 - 1);
+                kip.setLabel("b000000" + i);
+                CardImportEvent.start(CardImportEvent.METS_BUILD, kip).finish(CardImportEvent.OK);
+
+                CardImportEvent copy = CardImportEvent.startCopy(kip, "master");
+                // the third card is slow
+                Thread.sleep(i == 3 ? 50 : 1);
+                copy.finish(i == 5 ? CardImportEvent.ERROR : CardImportEvent.OK, 100);
+                CardImportEvent.start(CardImportEvent.METS_WRITE, kip).finish(CardImportEvent.OK);
+            }
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        ImportTraceAnalyzer analyzer = ImportTraceAnalyzer.read(recordingFile);
+        assertEquals(5, analyzer.getNumberOfCards());
+
+        List<ImportTraceAnalyzer.CardTrace> slowest = analyzer.getSlowestCards(2);
+        assertEquals(2, slowest.size());
+        ImportTraceAnalyzer.CardTrace card = slowest.get(0);
+        assertEquals("b0000003", card.getProcessTitle());
+        assertEquals(5, card.getCardId());
+        assertEquals("nka", card.getCatalog());
+        assertEquals(100, card.getBytes());
+        assertEquals(3, card.getPhases().size());
+
+        ImportTraceAnalyzer.PhaseTrace copy = analyzer.getPhases().get(0);
+        assertEquals(CardImportEvent.COPY, copy.getPhase());
+        assertEquals(5, copy.getCount());
+        assertEquals(1, copy.getErrors());
+        assertEquals(500, copy.getBytes());
+        assertEquals("b0000003", copy.getSlowestCard());
+        assertEquals(4, analyzer.getPhases().size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        analyzer.print(new PrintStream(out, true, "UTF-8"), 3);
+        String report = new String(out.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(report.startsWith("5 cards"));
+        assertTrue(report.contains("b0000003"));
+    }
+}
@@ -0,0 +1,138 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class IndexFilesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path catalogue;
+
+    @Before
+    public void setUp() {
+        String resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+        catalogue = Paths.get(resourcesFolder, "data", "nka BKA Nominal");
+        IndexFiles.clearCache();
+    }
+
+    @Test
+    public void testReadCatalogueFiles() throws Exception {
+        IndexFiles.LetterIndexFile letters = IndexFiles.readLetterIndex(catalogue.resolve("nka.ind"));
+        assertEquals(25, letters.size());
+        assertEquals("A", letters.getLetter(0));
+        assertEquals(1, letters.getStartPosition(0));
+        assertEquals("B", letters.getLetter(1));
+        assertEquals(200, letters.getStartPosition(1));
+        assertEquals("I/J", letters.getLetter(8));
+        assertEquals(122411, letters.getTotal());
+
+        // the admin index counts the images
+        IndexFiles.LetterIndexFile adminLetters = IndexFiles.readLetterIndex(catalogue.resolve("nka_adm.ind"));
+        assertEquals(244822, adminLetters.getTotal());
+        // converted from images to cards
+        List<LetterIndex> adminLetterIndex = adminLetters.createLetterIndex(122411);
+        assertEquals(1, adminLetterIndex.get(0).getStartPosition().intValue());
+        assertEquals(9159, adminLetters.getStartPosition(1));
+        assertEquals(4580, adminLetterIndex.get(1).getStartPosition().intValue());
+        assertEquals(244822, IndexFiles.readBatchList(catalogue.resolve("nka-laden.liste")).getNumberOfImages());
+        assertEquals(0, IndexFiles.readTix(catalogue.resolve("nka.tix")));
+
+        IndexFiles.TrayIndexFile trays = IndexFiles.readTrayIndex(catalogue.resolve("nka.lli"));
+        assertEquals(139, trays.size());
+        List<TrayIndex> trayIndex = trays.createTrayIndex();
+        assertEquals("Ahammer", trayIndex.get(1).getTrayName());
+        assertEquals(188, trayIndex.get(1).getStartPosition());
+        assertEquals(200, trayIndex.get(1).getNumberOfEntries());
+        // names with other characters are not skipped
+        assertEquals("H�raucourt", trayIndex.get(47).getTrayName());
+        assertEquals("U-Bahn", trayIndex.get(123).getTrayName());
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        Path file = folder.newFile("nka.ind").toPath();
+        Files.write(file, "A              1B           200Alle      400".getBytes(StandardCharsets.ISO_8859_1));
+
+        int parsedFiles = IndexFiles.getParsedFiles();
+        IndexFiles.LetterIndexFile first = IndexFiles.readLetterIndex(file);
+        assertSame(first, IndexFiles.readLetterIndex(file));
+        assertEquals(parsedFiles + 1, IndexFiles.getParsedFiles());
+
+        // the positions of the returned objects are independent of each other
+        List<LetterIndex> index = first.createLetterIndex();
+        index.get(0).setCurrentPosition(50);
+        assertEquals(1, first.createLetterIndex().get(0).getCurrentPosition());
+
+        Files.write(file, "A              1B           300Alle      400".getBytes(StandardCharsets.ISO_8859_1));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+        IndexFiles.LetterIndexFile changed = IndexFiles.readLetterIndex(file);
+        assertNotSame(first, changed);
+        assertEquals(300, changed.getStartPosition(1));
+    }
+
+    @Test
+    public void testTraySeparators() throws Exception {
+        Path file = folder.newFile("nka.lli").toPath();
+        // tabs, single spaces and runs of spaces, a name with a space
+        Files.write(file, "1\tA\t1\t187\n2 Ahammer 188 200\r\n3   Amon  388\t881  \n\n4\tvan Bauer\t1269\t10\n".getBytes(StandardCharsets.ISO_8859_1));
+        List<TrayIndex> trays = IndexFiles.readTrayIndex(file).createTrayIndex();
+        assertEquals(4, trays.size());
+        assertEquals("Ahammer", trays.get(1).getTrayName());
+        assertEquals(188, trays.get(1).getStartPosition());
+        assertEquals(200, trays.get(1).getNumberOfEntries());
+        assertEquals("Amon", trays.get(2).getTrayName());
+        assertEquals(3, trays.get(2).getOrder());
+        assertEquals(881, trays.get(2).getNumberOfEntries());
+        assertEquals("van Bauer", trays.get(3).getTrayName());
+        assertEquals(1269, trays.get(3).getStartPosition());
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        assertError("nka.lli", "1\tA\t1\t187\n2\tAhammer\t188\tx\n", 2, 15);
+        assertError("nka.lli", "1\tA\t1\t187\n2\t\t188\t200\n", 2, 4);
+        assertError("nka.lli", "1\tA\t1\t187\n2\tAhammer\n", 2, 3);
+        assertError("nka.lli", "1A\t1\t187\n", 1, 2);
+        assertError("nka.ind", "A              1B           200C", 1, 32);
+        assertError("nka.ind", "  200", 1, 3);
+        assertError("nka.tix", "0000000000x", 1, 11);
+    }
+
+    private void assertError(String name, String content, int line, int column) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.ISO_8859_1));
+        IndexFiles.clearCache();
+        try {
+            if (name.endsWith(".lli")) {
+                IndexFiles.readTrayIndex(file);
+            } else if (name.endsWith(".ind")) {
+                IndexFiles.readLetterIndex(file);
+            } else {
+                IndexFiles.readTix(file);
+            }
+            fail("No error for " + content);
+        } catch (IndexFileException e) {
+            assertEquals(line, e.getLine());
+            assertEquals(column, e.getColumn());
+        }
+    }
+}
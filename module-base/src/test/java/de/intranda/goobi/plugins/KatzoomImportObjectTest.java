@@ -0,0 +1,212 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class KatzoomImportObjectTest {
+
+    private static final String ROOT = "/opt/digiverso/import/katzoom/nka BKA Nominal/";
+
+    @Test
+    public void testObjectStreamRoundTrip() throws Exception {
+        List<KatzoomImportObject> cards = createCards(500);
+        List<KatzoomImportObject> restored = deserialize(serialize(cards));
+        assertEquals(cards.size(), restored.size());
+        for (int i = 0; i < cards.size(); i++) {
+            assertCardEquals(cards.get(i), restored.get(i));
+        }
+        // names are shared between the restored objects
+        assertSame(restored.get(0).getLetterName(), restored.get(1).getLetterName());
+    }
+
+    @Test(expected = InvalidClassException.class)
+    public void testOldFormatIsRejected() throws Exception {
+        byte[] data = serialize(createCards(1));
+        // replace the serialVersionUID in the class descriptor with the one of the previous format
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long currentUid = ObjectStreamClass.lookup(KatzoomImportObject.class).getSerialVersionUID();
+        for (int i = 0; i < data.length - 8; i++) {
+            if (buffer.getLong(i) == currentUid) {
+                buffer.putLong(i, 2352609476455769849L);
+                break;
+            }
+        }
+        deserialize(data);
+    }
+
+    @Test
+    public void testSpecialCases() throws Exception {
+        KatzoomImportObject empty = new KatzoomImportObject();
+        empty.setId(-5);
+
+        KatzoomImportObject unknownExtension = createCard(1);
+        unknownExtension.setFiles(new ArrayList<>(Arrays.asList(ROOT + "m001/z001/h001/b0000001.tif", ROOT + "m001/z001/h001/b0000001.jpeg")));
+
+        KatzoomImportObject unsorted = createCard(3);
+        unsorted.setFiles(new ArrayList<>(Arrays.asList(ROOT + "m001/z001/h001/b0000004.tif", ROOT + "m001/z001/h001/b0000003.tif")));
+
+        KatzoomImportObject outsideOfCatalogue = createCard(5);
+        outsideOfCatalogue.setCatalog("other");
+        outsideOfCatalogue.setFiles(new ArrayList<>(Arrays.asList("/tmp/b0000005.tif", "b0000005.txt", "/b0000005")));
+
+        List<KatzoomImportObject> cards = Arrays.asList(empty, unknownExtension, unsorted, outsideOfCatalogue);
+        List<KatzoomImportObject> restored = deserialize(serialize(cards));
+        for (int i = 0; i < cards.size(); i++) {
+            assertCardEquals(cards.get(i), restored.get(i));
+        }
+        assertNull(restored.get(0).getFiles());
+        assertNull(restored.get(0).getLabel());
+    }
+
+    @Test
+    public void testCodecRoundTrip() throws Exception {
+        List<KatzoomImportObject> cards = createCards(300);
+        KatzoomImportObjectCodec writer = new KatzoomImportObjectCodec();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (KatzoomImportObject kip : cards) {
+                writer.write(kip, out);
+            }
+        }
+        // catalogue, two letters, four trays, root and folders
+        assertEquals(1 + 2 + 4 + 1 + 2, writer.getDictionarySize());
+
+        // a new codec builds the same dictionary while reading
+        KatzoomImportObjectCodec reader = new KatzoomImportObjectCodec();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            for (KatzoomImportObject kip : cards) {
+                assertCardEquals(kip, reader.read(in));
+            }
+        }
+        assertEquals(writer.getDictionarySize(), reader.getDictionarySize());
+    }
+
+    @Test
+    public void testCompactSize() throws Exception {
+        List<KatzoomImportObject> cards = createCards(20000);
+        List<LegacyImportObject> legacyCards = new ArrayList<>();
+        for (KatzoomImportObject kip : cards) {
+            legacyCards.add(new LegacyImportObject(kip));
+        }
+
+        byte[] legacy = serialize(legacyCards);
+        byte[] compact = serialize(cards);
+        assertTrue("Compact form is not smaller than default serialization", compact.length * 3 < legacy.length);
+        assertEquals(cards.size(), deserialize(compact).size());
+    }
+
+    private static byte[] serialize(List<?> objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeInt(objects.size());
+            for (Object object : objects) {
+                out.writeObject(object);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            int size = in.readInt();
+            List<T> objects = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                objects.add((T) in.readObject());
+            }
+            return objects;
+        }
+    }
+
+    private static List<KatzoomImportObject> createCards(int number) {
+        List<KatzoomImportObject> cards = new ArrayList<>(number);
+        for (int i = 0; i < number; i++) {
+            cards.add(createCard(i * 2 + 1));
+        }
+        return cards;
+    }
+
+    private static KatzoomImportObject createCard(int id) {
+        int position = id / 2 + 1;
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setCatalog("nka BKA Nominal");
+        kip.setLabel(String.format("b%07d", id));
+        kip.setTotalPosition(position);
+        kip.setLetterName(position <= 200 ? "A" : "B");
+        kip.setLetterPosition(position <= 200 ? position : position - 200);
+        kip.setTrayName(new String[] { "Ahammer", "Amon", "Bauer", "Berger" }[Math.min(3, position / 50)]);
+        kip.setTrayPosition(position % 50 + 1);
+        if (position % 3 != 0) {
+            // some cards without administrative index
+            kip.setAdminLetterName(position <= 100 ? "A" : "B");
+            kip.setAdminLetterPosition(position <= 100 ? position : position - 100);
+        }
+        String folder = ROOT + (id < 100 ? "m001/z001/h001/" : "m001/z001/h002/");
+        kip.setFiles(new ArrayList<>(Arrays.asList(folder + String.format("b%07d.tif", id), folder + String.format("b%07d.txt", id),
+                folder + String.format("b%07d.tif", id + 1))));
+        return kip;
+    }
+
+    private static void assertCardEquals(KatzoomImportObject expected, KatzoomImportObject actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getCatalog(), actual.getCatalog());
+        assertEquals(expected.getLabel(), actual.getLabel());
+        assertEquals(expected.getTotalPosition(), actual.getTotalPosition());
+        assertEquals(expected.getLetterName(), actual.getLetterName());
+        assertEquals(expected.getLetterPosition(), actual.getLetterPosition());
+        assertEquals(expected.getTrayName(), actual.getTrayName());
+        assertEquals(expected.getTrayPosition(), actual.getTrayPosition());
+        assertEquals(expected.getAdminLetterName(), actual.getAdminLetterName());
+        assertEquals(expected.getAdminLetterPosition(), actual.getAdminLetterPosition());
+        assertEquals(expected.getFiles(), actual.getFiles());
+    }
+
+    /**
+     * the previous format, using the default serialization
+     */
+    private static class LegacyImportObject implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private int id;
+        private String catalog;
+        private String label;
+        private int totalPosition;
+        private String letterName;
+        private int letterPosition;
+        private String trayName;
+        private int trayPosition;
+        private List<String> files;
+
+        private LegacyImportObject(KatzoomImportObject kip) {
+            id = kip.getId();
+            catalog = kip.getCatalog();
+            label = kip.getLabel();
+            totalPosition = kip.getTotalPosition();
+            letterName = kip.getLetterName();
+            letterPosition = kip.getLetterPosition();
+            trayName = kip.getTrayName();
+            trayPosition = kip.getTrayPosition();
+            files = kip.getFiles();
+        }
+    }
+}
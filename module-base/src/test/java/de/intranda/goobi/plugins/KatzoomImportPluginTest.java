@@ -6,11 +6,18 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.lang.reflect.Proxy;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+import java.util.stream.Stream;
 
 import org.easymock.EasyMock;
 import org.goobi.interfaces.IArchiveManagementAdministrationPlugin;
@@ -20,6 +27,7 @@ import org.goobi.interfaces.IMetadataField;
 import org.goobi.interfaces.INodeType;
 import org.goobi.production.enums.ImportType;
 import org.goobi.production.enums.PluginType;
+import org.goobi.production.enums.ImportReturnValue;
 import org.goobi.production.importer.ImportObject;
 import org.goobi.production.importer.Record;
 import org.goobi.production.plugin.PluginLoader;
@@ -146,6 +154,36 @@ public class KatzoomImportPluginTest {
         assertEquals(112, kip.getTrayPosition());
     }
 
+    @Test
+    public void testPositionIndex() throws Exception {
+        KatzoomImportPlugin plugin = new KatzoomImportPlugin();
+        plugin.setWorkflowName("options");
+        List<String> folderList = plugin.getAllFilenames();
+        plugin.generateRecordsFromFilenames(folderList);
+
+        PositionIndex index = plugin.openPositionIndex("nka BKA Nominal");
+        assertEquals(500, index.size());
+
+        PositionIndex.Entry entry = index.getByPosition(200);
+        assertEquals(399, entry.getId());
+        assertEquals("A", entry.getLetterName());
+        assertEquals(200, entry.getLetterPosition());
+        assertEquals("Ahammer", entry.getTrayName());
+        assertEquals(12, entry.getTrayPosition());
+
+        entry = index.findById(401);
+        assertEquals(201, entry.getTotalPosition());
+        assertEquals("B", entry.getLetterName());
+        assertNull(index.findById(400));
+
+        int[] range = index.getLetterRange("B");
+        assertEquals(201, range[0]);
+        assertEquals(500, range[1]);
+
+        entry = index.getByTrayPosition("Amon", 112);
+        assertEquals(999, entry.getId());
+    }
+
     @Test
     public void testGenerateFiles() throws Exception {
         File importFolder = folder.newFolder();
@@ -223,6 +261,68 @@ public class KatzoomImportPluginTest {
         assertEquals("1", md.getValue());
     }
 
+    @Test
+    public void testGenerateFilesInChunks() throws Exception {
+        File importFolder = folder.newFolder();
+
+        KatzoomImportPlugin plugin = new KatzoomImportPlugin();
+        plugin.setImportFolder(importFolder.getAbsolutePath());
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+        plugin.setPrefs(prefs);
+
+        List<String> folderList = plugin.getAllFilenames();
+        List<Record> recordList = plugin.generateRecordsFromFilenames(folderList).subList(0, 10);
+
+        // configured chunk size is 4
+        List<Integer> chunkSizes = new ArrayList<>();
+        List<ImportObject> imports = new ArrayList<>();
+        plugin.generateFiles(recordList, chunk -> {
+            chunkSizes.add(chunk.size());
+            imports.addAll(chunk);
+        });
+        assertEquals(3, chunkSizes.size());
+        assertEquals(4, chunkSizes.get(0).intValue());
+        assertEquals(4, chunkSizes.get(1).intValue());
+        assertEquals(2, chunkSizes.get(2).intValue());
+        assertEquals(10, imports.size());
+        assertEquals("b0000001", imports.get(0).getProcessTitle());
+        assertTrue(Files.exists(Paths.get(imports.get(9).getMetsFilename())));
+
+        // card data was released
+        assertNull(recordList.get(0).getObject());
+    }
+
+    @Test
+    public void testGenerateFilesWithOptions() throws Exception {
+        File importFolder = folder.newFolder();
+
+        KatzoomImportPlugin plugin = new KatzoomImportPlugin();
+        plugin.setWorkflowName("options");
+        plugin.setImportFolder(importFolder.getAbsolutePath());
+        Prefs prefs = new Prefs();
+        prefs.loadPrefs(resourcesFolder + "ruleset.xml");
+        plugin.setPrefs(prefs);
+
+        List<String> folderList = plugin.getAllFilenames();
+        List<Record> recordList = plugin.generateRecordsFromFilenames(folderList);
+        // configured threshold is 300, the remaining records are stored in a temporary file
+        assertTrue(recordList instanceof RecordStore);
+        assertEquals(200, ((RecordStore) recordList).getStoredRecords());
+
+        // records on both sides of the threshold, mets files are written durably in batches of 3
+        List<ImportObject> imports = new ArrayList<>();
+        plugin.generateFiles(recordList.subList(295, 305), imports::addAll);
+        assertEquals(10, imports.size());
+        for (ImportObject io : imports) {
+            assertEquals(ImportReturnValue.ExportFinished, io.getImportReturnValue());
+            assertTrue(Files.exists(Paths.get(io.getMetsFilename())));
+        }
+        try (Stream<Path> files = Files.list(importFolder.toPath())) {
+            assertEquals(0, files.filter(p -> p.getFileName().toString().endsWith(".tmp")).count());
+        }
+    }
+
     @Test
     public void testCreateEadStructure() {
         mockArchivePlugin();
@@ -251,6 +351,183 @@ public class KatzoomImportPluginTest {
 
     }
 
+    @Test
+    public void testIncrementalEadForTwoCatalogues() {
+        ArchiveDatabases archive = new ArchiveDatabases();
+        PowerMock.mockStatic(PluginLoader.class);
+        EasyMock.expect(PluginLoader.getPluginByTitle(PluginType.Administration, "intranda_administration_archive_management"))
+                .andReturn(archive.getPlugin())
+                .anyTimes();
+        PowerMock.replay(PluginLoader.class);
+
+        KatzoomImportPlugin plugin = new KatzoomImportPlugin();
+        // incremental updates are enabled for this workflow
+        plugin.setWorkflowName("options");
+        plugin.getAllFilenames();
+
+        plugin.generateEadStructure(createEadRecords("first", 4), "first");
+        plugin.generateEadStructure(createEadRecords("second", 3), "second");
+        // the first catalogue is imported again with one more card
+        plugin.generateEadStructure(createEadRecords("first", 5), "first");
+
+        assertEquals(2, archive.databases.size());
+        assertEquals(Arrays.asList("A", "A/A 1", "A/A 1/first_1", "A/A 1/first_2", "B", "B/B 1", "B/B 1/first_3", "B/B 1/first_4", "B/B 1/first_5"),
+                archive.getNodes("first"));
+        assertEquals(Arrays.asList("A", "A/A 1", "A/A 1/second_1", "A/A 1/second_2", "B", "B/B 1", "B/B 1/second_3"), archive.getNodes("second"));
+    }
+
+    private List<Record> createEadRecords(String catalog, int numberOfCards) {
+        List<Record> records = new ArrayList<>();
+        for (int position = 1; position <= numberOfCards; position++) {
+            KatzoomImportObject kip = new KatzoomImportObject();
+            kip.setId(position);
+            kip.setCatalog(catalog);
+            kip.setLabel(catalog + "_" + position);
+            kip.setTotalPosition(position);
+            kip.setLetterName(position <= 2 ? "A" : "B");
+            kip.setTrayName(kip.getLetterName() + " 1");
+            Record rec = new Record();
+            rec.setId(String.valueOf(position));
+            rec.setObject(kip);
+            records.add(rec);
+        }
+        return records;
+    }
+
+    /**
+     * Archive management plugin that keeps its databases in memory. The plugin and the nodes are proxies, the title of a node is its label.
+     */
+    private static class ArchiveDatabases {
+
+        private final Map<String, IEadEntry> databases = new LinkedHashMap<>();
+        private final Map<IEadEntry, List<IEadEntry>> subNodes = new IdentityHashMap<>();
+        private final Map<IEadEntry, String> titles = new IdentityHashMap<>();
+        private final ArchiveManagementConfiguration config;
+
+        private String databaseName;
+        private IEadEntry root;
+        private IEadEntry selected;
+
+        private ArchiveDatabases() {
+            INodeType folderType = EasyMock.createMock(INodeType.class);
+            INodeType fileType = EasyMock.createMock(INodeType.class);
+            EasyMock.expect(folderType.getNodeName()).andReturn("folder").anyTimes();
+            EasyMock.expect(fileType.getNodeName()).andReturn("file").anyTimes();
+            config = EasyMock.createMock(ArchiveManagementConfiguration.class);
+            EasyMock.expect(config.getConfiguredNodes()).andReturn(Arrays.asList(folderType, fileType)).anyTimes();
+            EasyMock.replay(folderType, fileType, config);
+        }
+
+        private IArchiveManagementAdministrationPlugin getPlugin() {
+            return proxy(IArchiveManagementAdministrationPlugin.class, (method, args) -> {
+                switch (method) {
+                    case "setDatabaseName":
+                    case "setSelectedDatabase":
+                        databaseName = (String) args[0];
+                        return null;
+                    case "createNewDatabase":
+                        root = createNode();
+                        databases.put(databaseName, root);
+                        return null;
+                    case "getPossibleDatabases":
+                        return new ArrayList<>(databases.keySet());
+                    case "loadSelectedDatabase":
+                        root = databases.get(databaseName);
+                        return null;
+                    case "getRootElement":
+                        return root;
+                    case "getConfig":
+                        return config;
+                    case "setSelectedEntry":
+                        selected = (IEadEntry) args[0];
+                        return null;
+                    case "getSelectedEntry":
+                        return selected;
+                    case "addNode":
+                        IEadEntry node = createNode();
+                        subNodes.get(selected).add(node);
+                        selected = node;
+                        return null;
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private IEadEntry createNode() {
+            IEadEntry[] node = new IEadEntry[1];
+            IFieldValue value = proxy(IFieldValue.class, (method, args) -> {
+                if ("setValue".equals(method)) {
+                    titles.put(node[0], (String) args[0]);
+                }
+                return null;
+            });
+            IMetadataField title = proxy(IMetadataField.class, (method, args) -> {
+                switch (method) {
+                    case "getName":
+                        return "unittitle";
+                    case "isFilled":
+                        return true;
+                    case "getValues":
+                        return Arrays.asList(value);
+                    default:
+                        return null;
+                }
+            });
+            node[0] = proxy(IEadEntry.class, (method, args) -> {
+                switch (method) {
+                    case "getSubEntryList":
+                        return subNodes.get(node[0]);
+                    case "getLabel":
+                        return titles.get(node[0]);
+                    case "getIdentityStatementAreaList":
+                        return Arrays.asList(title);
+                    default:
+                        return null;
+                }
+            });
+            subNodes.put(node[0], new ArrayList<>());
+            return node[0];
+        }
+
+        /**
+         * Get the paths of all nodes of a database below the root node, in the order of the tree
+         */
+        private List<String> getNodes(String database) {
+            List<String> paths = new ArrayList<>();
+            addNodes(databases.get(database), "", paths);
+            return paths;
+        }
+
+        private void addNodes(IEadEntry parent, String path, List<String> paths) {
+            for (IEadEntry node : subNodes.get(parent)) {
+                String nodePath = path + titles.get(node);
+                paths.add(nodePath);
+                addNodes(node, nodePath + "/", paths);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, BiFunction<String, Object[], Object> handler) {
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return type.getSimpleName();
+                    default:
+                        Object result = handler.apply(method.getName(), args);
+                        if (result == null && method.getReturnType().isPrimitive() && method.getReturnType() != void.class) {
+                            return method.getReturnType() == boolean.class ? Boolean.FALSE : 0;
+                        }
+                        return result;
+                }
+            });
+        }
+    }
+
     private void mockArchivePlugin() {
         PowerMock.mockStatic(PluginLoader.class);
         IArchiveManagementAdministrationPlugin plugin = EasyMock.createMock(IArchiveManagementAdministrationPlugin.class);
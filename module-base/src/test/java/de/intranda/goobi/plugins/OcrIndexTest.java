@@ -0,0 +1,125 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OcrIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSearch() throws Exception {
+        OcrIndex index = new OcrIndex();
+        index.addCard(createCard(1, "A", "Ahammer"), createText("b0000001.txt", "Ahammer, Franz\nBauer in Graz"));
+        index.addCard(createCard(3, "A", "Amon"), createText("b0000003.txt", "Amon, Maria; Bäuerin in Graz"));
+        index.addCard(createCard(5, "B", "Bauern"), createText("b0000005.txt", "BAUER, Josef - Wien"));
+
+        List<OcrIndex.IndexedCard> hits = index.search("bauer");
+        assertEquals(2, hits.size());
+        assertEquals(1, hits.get(0).getId());
+        assertEquals(5, hits.get(1).getId());
+        assertEquals("B", hits.get(1).getLetterName());
+        assertEquals("Bauern", hits.get(1).getTrayName());
+
+        // all terms must match
+        assertEquals(1, index.search("Bauer Graz").size());
+        assertEquals(1, index.search("bäuerin").size());
+        assertTrue(index.search("Linz").isEmpty());
+        assertTrue(index.search("  ").isEmpty());
+    }
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        OcrIndex index = new OcrIndex();
+        for (int i = 1; i < 200; i = i + 2) {
+            index.addCard(createCard(i, "A", "Ahammer"), createText("b" + i + ".txt", "Karte " + i + (i % 3 == 0 ? " Gemeinde" : "")));
+        }
+        // replace existing card
+        index.addCard(createCard(3, "A", "Ahammer"), createText("b3new.txt", "Karte 3"));
+
+        Path indexFile = folder.getRoot().toPath().resolve("index/katzoom-ocr.idx");
+        index.save(indexFile);
+
+        OcrIndex loaded = OcrIndex.load(indexFile);
+        assertEquals(100, loaded.getNumberOfCards());
+        assertEquals(index.getNumberOfTerms(), loaded.getNumberOfTerms());
+        assertEquals(32, loaded.search("gemeinde").size());
+        assertEquals(9, loaded.search("gemeinde").get(0).getId());
+        assertEquals(199, loaded.search("199").get(0).getTotalPosition());
+
+        // missing file returns an empty index
+        assertEquals(0, OcrIndex.load(folder.getRoot().toPath().resolve("missing.idx")).getNumberOfCards());
+    }
+
+    @Test
+    public void testOpenIsCached() throws Exception {
+        OcrIndex index = new OcrIndex();
+        index.addCard(createCard(1, "A", "Ahammer"), createText("b1.txt", "Graz"));
+        Path indexFile = folder.getRoot().toPath().resolve("katzoom-ocr.idx");
+        index.save(indexFile);
+
+        // each search uses the same loaded index
+        OcrIndex opened = OcrIndex.open(indexFile);
+        assertSame(opened, OcrIndex.open(indexFile));
+        assertEquals(1, opened.search("graz").size());
+
+        // a changed file is read again
+        index.addCard(createCard(3, "A", "Ahammer"), createText("b3.txt", "Graz Wien"));
+        index.save(indexFile);
+        OcrIndex reopened = OcrIndex.open(indexFile);
+        assertNotSame(opened, reopened);
+        assertEquals(2, reopened.search("graz").size());
+    }
+
+    @Test
+    public void testInvalidEncodingAndReplaceAfterLoad() throws Exception {
+        OcrIndex index = new OcrIndex();
+        // latin-1 text is not valid UTF-8
+        Path latin1 = folder.getRoot().toPath().resolve("b1.txt");
+        Files.write(latin1, "Bäuerin in Graz".getBytes(StandardCharsets.ISO_8859_1));
+        index.addCard(createCard(1, "A", "Ahammer"), Collections.singletonList(latin1));
+        index.addCard(createCard(3, "A", "Ahammer"), createText("b3.txt", "Wien"));
+        assertEquals(1, index.search("graz").size());
+
+        Path indexFile = folder.getRoot().toPath().resolve("katzoom-ocr.idx");
+        index.save(indexFile);
+        OcrIndex loaded = OcrIndex.load(indexFile);
+        // the terms of a loaded card are removed, when the card is indexed again
+        loaded.addCard(createCard(1, "A", "Ahammer"), createText("b1new.txt", "Linz"));
+        assertTrue(loaded.search("graz").isEmpty());
+        assertEquals(1, loaded.search("linz").size());
+        assertEquals(1, loaded.search("wien").size());
+        assertEquals(2, loaded.getNumberOfTerms());
+    }
+
+    private KatzoomImportObject createCard(int id, String letter, String tray) {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setLabel("b" + id);
+        kip.setTotalPosition(id);
+        kip.setLetterName(letter);
+        kip.setLetterPosition(id);
+        kip.setTrayName(tray);
+        kip.setTrayPosition(id);
+        return kip;
+    }
+
+    private List<Path> createText(String name, String content) throws Exception {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return Collections.singletonList(file);
+    }
+}
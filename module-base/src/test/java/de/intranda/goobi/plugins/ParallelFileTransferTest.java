@@ -0,0 +1,164 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ParallelFileTransferTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testTransferWithRetries() throws Exception {
+        Path source = folder.newFolder("source").toPath();
+        // local stand-in for the object store
+        Path bucket = folder.newFolder("bucket").toPath();
+
+        List<CopyTask> tasks = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            Path file = source.resolve(String.format("b%07d.tif", i));
+            Files.write(file, ("content " + i).getBytes());
+            tasks.add(new CopyTask(file, bucket.resolve(file.getFileName())));
+        }
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger calls = new AtomicInteger();
+        Set<Path> failedOnce = ConcurrentHashMap.newKeySet();
+
+        FileCopier flakyStore = (src, dest) -> {
+            calls.incrementAndGet();
+            int current = running.incrementAndGet();
+            maxRunning.accumulateAndGet(current, Math::max);
+            try {
+                Thread.sleep(5);
+                // write a partial object first, a retry must overwrite it
+                Files.write(dest, new byte[] { 1 });
+                if (src.getFileName().toString().endsWith("3.tif") && failedOnce.add(src)) {
+                    throw new IOException("connection reset");
+                }
+                Files.copy(src, dest, StandardCopyOption.REPLACE_EXISTING);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+
+        try (ParallelFileTransfer transfer = new ParallelFileTransfer(3, 2, 1, flakyStore)) {
+            transfer.transfer(tasks);
+        }
+
+        assertTrue(maxRunning.get() <= 3);
+        assertEquals(2, failedOnce.size());
+        assertEquals(22, calls.get());
+        for (CopyTask task : tasks) {
+            assertArrayEquals(Files.readAllBytes(task.getSource()), Files.readAllBytes(task.getDestination()));
+        }
+    }
+
+    @Test
+    public void testTransferFails() throws Exception {
+        Path source = folder.newFile("b0000001.tif").toPath();
+        List<CopyTask> tasks = new ArrayList<>();
+        tasks.add(new CopyTask(source, folder.getRoot().toPath().resolve("target.tif")));
+        AtomicInteger calls = new AtomicInteger();
+        try (ParallelFileTransfer transfer = new ParallelFileTransfer(2, 2, 1, (src, dest) -> {
+            calls.incrementAndGet();
+            throw new IOException("unavailable");
+        })) {
+            transfer.transfer(tasks);
+            fail();
+        } catch (IOException e) {
+            assertEquals("unavailable", e.getMessage());
+        }
+        // first attempt plus two retries
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testCopierPerTransfer() throws Exception {
+        Path source = folder.newFolder("source").toPath();
+        Path target = folder.newFolder("target").toPath();
+        Map<Path, String> copiedFor = new ConcurrentHashMap<>();
+
+        try (ParallelFileTransfer transfer = new ParallelFileTransfer(4, 0, 1, (src, dest) -> fail())) {
+            for (String card : new String[] { "b0000001", "b0000003" }) {
+                List<CopyTask> tasks = new ArrayList<>();
+                for (int i = 1; i <= 5; i++) {
+                    Path file = source.resolve(card + "_" + i + ".tif");
+                    Files.write(file, card.getBytes());
+                    tasks.add(new CopyTask(file, target.resolve(file.getFileName())));
+                }
+                // the card is passed with the copier, not through shared state
+                transfer.transfer(tasks, (src, dest) -> {
+                    copiedFor.put(src, card);
+                    Files.copy(src, dest);
+                });
+            }
+        }
+
+        assertEquals(10, copiedFor.size());
+        for (Map.Entry<Path, String> entry : copiedFor.entrySet()) {
+            assertTrue(entry.getKey().getFileName().toString().startsWith(entry.getValue()));
+        }
+    }
+
+    @Test
+    public void testRemoteTargetRetries() throws Exception {
+        Path source = folder.newFolder("source").toPath();
+        List<CopyTask> tasks = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            Path file = source.resolve(String.format("b%07d.tif", i));
+            Files.write(file, ("content " + i).getBytes());
+            tasks.add(new CopyTask(file, Paths.get("bucket", "b" + i, file.getFileName().toString())));
+        }
+
+        // stubbed object store: the upload of b2 fails twice, b5 is never accepted
+        Map<Path, byte[]> objects = new ConcurrentHashMap<>();
+        Map<Path, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        FileCopier remoteStore = (src, dest) -> {
+            int attempt = attempts.computeIfAbsent(dest, k -> new AtomicInteger()).incrementAndGet();
+            String name = src.getFileName().toString();
+            if ("b0000005.tif".equals(name) || "b0000002.tif".equals(name) && attempt <= 2) {
+                throw new IOException("upload of " + name + " failed");
+            }
+            // a repeated upload replaces the object
+            objects.put(dest, Files.readAllBytes(src));
+        };
+
+        try (ParallelFileTransfer transfer = new ParallelFileTransfer(4, 2, 1, remoteStore)) {
+            transfer.transfer(tasks);
+            fail("Transfer did not fail");
+        } catch (IOException e) {
+            assertEquals("upload of b0000005.tif failed", e.getMessage());
+        }
+
+        // the other uploads are finished, the failed one is not stored
+        assertEquals(5, objects.size());
+        assertFalse(objects.containsKey(tasks.get(4).getDestination()));
+        assertArrayEquals(Files.readAllBytes(tasks.get(1).getSource()), objects.get(tasks.get(1).getDestination()));
+        assertEquals(3, attempts.get(tasks.get(1).getDestination()).get());
+        assertEquals(3, attempts.get(tasks.get(4).getDestination()).get());
+        assertEquals(1, attempts.get(tasks.get(0).getDestination()).get());
+    }
+}
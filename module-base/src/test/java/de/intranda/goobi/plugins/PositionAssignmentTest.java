@@ -0,0 +1,201 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class PositionAssignmentTest {
+
+    @Test
+    public void testCatalogue() throws Exception {
+        String resourcesFolder = "src/test/resources/"; // for junit tests in eclipse
+        if (!Files.exists(Paths.get(resourcesFolder))) {
+            resourcesFolder = "target/test-classes/"; // to run mvn test from cli or in jenkins
+        }
+        Path catalogue = Paths.get(resourcesFolder, "data", "nka BKA Nominal");
+        List<Path> files;
+        try (Stream<Path> stream = Files.find(catalogue, 5, (p, found) -> found.isRegularFile())) {
+            files = stream.collect(Collectors.toList());
+        }
+        IndexFiles.LetterIndexFile letters = IndexFiles.readLetterIndex(catalogue.resolve("nka.ind"));
+        IndexFiles.TrayIndexFile trays = IndexFiles.readTrayIndex(catalogue.resolve("nka.lli"));
+
+        List<KatzoomImportObject> parallel =
+                parallel(new PositionAssignment("nka BKA Nominal", true, letters.createLetterIndex(), trays.createTrayIndex()), files);
+        List<KatzoomImportObject> sequential =
+                sequential(new PositionAssignment("nka BKA Nominal", true, letters.createLetterIndex(), trays.createTrayIndex()), files);
+        assertNotNull(parallel);
+        assertEquals(500, parallel.size());
+        assertSameCards(sequential, parallel);
+
+        KatzoomImportObject kip = parallel.get(499);
+        assertEquals(999, kip.getId());
+        assertEquals("B", kip.getLetterName());
+        assertEquals(300, kip.getLetterPosition());
+        assertEquals("Amon", kip.getTrayName());
+        assertEquals(112, kip.getTrayPosition());
+    }
+
+    @Test
+    public void testBacksideInNextFolder() {
+        // the back side of card 5 is the first file of the second folder
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i <= 5; i++) {
+            files.add(Paths.get("/import/nka/m001/z001/h001/b000000" + i + ".tif"));
+        }
+        files.add(Paths.get("/import/nka/m001/z001/h001/b0000005.txt"));
+        for (int i = 6; i <= 12; i++) {
+            files.add(Paths.get(String.format("/import/nka/m001/z001/h002/b%07d.tif", i)));
+        }
+        // shuffled folder order
+        Collections.reverse(files);
+
+        List<KatzoomImportObject> parallel = parallel(createAssignment(1, 3, 5), files);
+        List<KatzoomImportObject> sequential = sequential(createAssignment(1, 3, 5), files);
+        assertSameCards(sequential, parallel);
+        assertEquals(6, parallel.size());
+        assertEquals(Arrays.asList("/import/nka/m001/z001/h001/b0000005.tif", "/import/nka/m001/z001/h001/b0000005.txt",
+                "/import/nka/m001/z001/h002/b0000006.tif"), parallel.get(2).getFiles());
+        // letters with the same start position: the last one gets the cards
+        assertEquals("C", parallel.get(3).getLetterName());
+        assertEquals(1, parallel.get(3).getLetterPosition());
+        assertEquals("tray2", parallel.get(5).getTrayName());
+        assertEquals(1, parallel.get(5).getTrayPosition());
+    }
+
+    @Test
+    public void testAdminIndex() {
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            files.add(Paths.get(String.format("/import/nka/m001/z001/h%03d/b%07d.tif", (i - 1) / 7 + 1, i)));
+        }
+        // the administrative index counts both sides of the cards
+        List<LetterIndex> adminLetters = new ArrayList<>(Arrays.asList(new LetterIndex("A", 1, 1), new LetterIndex("B", 7, 1)));
+        List<KatzoomImportObject> parallel =
+                parallel(new PositionAssignment("nka", true, createLetters(), Collections.emptyList(), scale(adminLetters)), files);
+        List<KatzoomImportObject> sequential =
+                sequential(new PositionAssignment("nka", true, createLetters(), Collections.emptyList(), scale(adminLetters)), files);
+        assertSameCards(sequential, parallel);
+        assertEquals(10, parallel.size());
+        // images 1 - 7 belong to A, that is cards 1 - 3 and the front side of card 4
+        assertEquals("A", parallel.get(2).getAdminLetterName());
+        assertEquals(3, parallel.get(2).getAdminLetterPosition());
+        assertEquals("B", parallel.get(4).getAdminLetterName());
+        assertEquals(1, parallel.get(4).getAdminLetterPosition());
+        assertEquals(6, parallel.get(9).getAdminLetterPosition());
+        // the main index is not changed
+        assertEquals("C", parallel.get(9).getLetterName());
+    }
+
+    private static List<LetterIndex> scale(List<LetterIndex> letters) {
+        List<LetterIndex> scaled = new ArrayList<>();
+        for (LetterIndex letter : letters) {
+            scaled.add(new LetterIndex(letter.getLetter(), (letter.getStartPosition() - 1) / 2 + 1, 1));
+        }
+        return scaled;
+    }
+
+    @Test
+    public void testFallback() {
+        List<Path> files = new ArrayList<>();
+        // card numbers of both folders overlap
+        for (int i = 1; i <= 9; i += 2) {
+            files.add(Paths.get(String.format("/import/nka/h001/b%07d.tif", i)));
+            files.add(Paths.get(String.format("/import/nka/h002/b%07d.tif", i + 10)));
+        }
+        files.add(Paths.get("/import/nka/h002/b0000007.tif"));
+        assertNull(parallel(createAssignment(1, 3, 5), files));
+        assertSameCards(sequential(createAssignment(1, 3, 5), files), assign(createAssignment(1, 3, 5), files));
+
+        // unsorted trays
+        List<KatzoomImportObject> sequential = sequential(new PositionAssignment("nka", false, createLetters(), createUnsortedTrays()), files);
+        assertSameCards(sequential, assign(new PositionAssignment("nka", false, createLetters(), createUnsortedTrays()), files));
+    }
+
+    @Test
+    public void testCardsAreHandedOverInOrder() {
+        // more folders than are created at the same time
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i <= 400; i++) {
+            files.add(Paths.get(String.format("/import/nka/h%03d/b%07d.tif", (i - 1) / 3 + 1, i)));
+        }
+        Collections.shuffle(files, new Random(1));
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        int numberOfCards = createAssignment(1, 50, 150).assign(files, card -> {
+            // each card is handed over with its final position
+            assertEquals(cards.size() + 1, card.getTotalPosition());
+            cards.add(card);
+        });
+        assertEquals(200, numberOfCards);
+        assertSameCards(sequential(createAssignment(1, 50, 150), files), cards);
+    }
+
+    private static List<KatzoomImportObject> parallel(PositionAssignment assignment, List<Path> files) {
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        if (!assignment.assignParallel(files, cards::add)) {
+            assertTrue(cards.isEmpty());
+            return null;
+        }
+        return cards;
+    }
+
+    private static List<KatzoomImportObject> sequential(PositionAssignment assignment, List<Path> files) {
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        assignment.assignSequential(files, cards::add);
+        return cards;
+    }
+
+    private static List<KatzoomImportObject> assign(PositionAssignment assignment, List<Path> files) {
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        assertEquals(assignment.assign(files, cards::add), cards.size());
+        return cards;
+    }
+
+    private static PositionAssignment createAssignment(int... trayStarts) {
+        List<TrayIndex> trays = new ArrayList<>();
+        for (int i = 0; i < trayStarts.length; i++) {
+            trays.add(new TrayIndex("tray" + i, i + 1, trayStarts[i], 2, 1));
+        }
+        return new PositionAssignment("nka", true, createLetters(), trays);
+    }
+
+    private static List<TrayIndex> createUnsortedTrays() {
+        return Arrays.asList(new TrayIndex("tray0", 1, 1, 4, 1), new TrayIndex("tray1", 2, 6, 3, 1), new TrayIndex("tray2", 3, 4, 3, 1));
+    }
+
+    private static List<LetterIndex> createLetters() {
+        return new ArrayList<>(Arrays.asList(new LetterIndex("A", 1, 1), new LetterIndex("B", 3, 1), new LetterIndex("C", 3, 1)));
+    }
+
+    private static void assertSameCards(List<KatzoomImportObject> expected, List<KatzoomImportObject> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            KatzoomImportObject e = expected.get(i);
+            KatzoomImportObject a = actual.get(i);
+            assertEquals(e.getId(), a.getId());
+            assertEquals(e.getLabel(), a.getLabel());
+            assertEquals(e.getTotalPosition(), a.getTotalPosition());
+            assertEquals(e.getLetterName(), a.getLetterName());
+            assertEquals(e.getLetterPosition(), a.getLetterPosition());
+            assertEquals(e.getTrayName(), a.getTrayName());
+            assertEquals(e.getTrayPosition(), a.getTrayPosition());
+            assertEquals(e.getAdminLetterName(), a.getAdminLetterName());
+            assertEquals(e.getAdminLetterPosition(), a.getAdminLetterPosition());
+            assertEquals(e.getFiles(), a.getFiles());
+        }
+    }
+}
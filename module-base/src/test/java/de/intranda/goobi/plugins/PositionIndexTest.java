@@ -0,0 +1,83 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PositionIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testUnsortedIds() throws Exception {
+        // ids in descending order, letters and trays in ascending order
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        for (int i = 1; i <= 20; i++) {
+            cards.add(createCard(100 - i, i, i <= 10 ? "A" : "B", "T" + ((i - 1) / 5)));
+        }
+        PositionIndex index = write(cards);
+
+        assertEquals(15, index.findById(85).getTotalPosition());
+        assertNull(index.findById(100));
+        assertArrayEquals(new int[] { 11, 20 }, index.getLetterRange("B"));
+        assertArrayEquals(new int[] { 6, 10 }, index.getTrayRange("T1"));
+        assertEquals(92, index.getByTrayPosition("T1", 3).getId());
+    }
+
+    @Test
+    public void testUnsortedLetters() throws Exception {
+        // the letter A appears again after B
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        for (int i = 1; i <= 12; i++) {
+            cards.add(createCard(i, i, i <= 4 || i > 8 ? "A" : "B", "T" + ((i - 1) / 4)));
+        }
+        PositionIndex index = write(cards);
+
+        assertArrayEquals(new int[] { 1, 12 }, index.getLetterRange("A"));
+        assertArrayEquals(new int[] { 5, 8 }, index.getLetterRange("B"));
+        assertArrayEquals(new int[] { 9, 12 }, index.getTrayRange("T2"));
+        assertEquals(7, index.findById(7).getTotalPosition());
+        assertEquals("B", index.getByPosition(6).getLetterName());
+    }
+
+    @Test
+    public void testManyTrays() throws Exception {
+        // more trays than fit into a short ordinal
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        for (int i = 1; i <= 40000; i++) {
+            cards.add(createCard(i, i, "A", "T" + i));
+        }
+        PositionIndex index = write(cards);
+
+        assertArrayEquals(new int[] { 39999, 39999 }, index.getTrayRange("T39999"));
+        assertEquals("T35000", index.getByPosition(35000).getTrayName());
+        assertEquals(40000, index.getByTrayPosition("T40000", 5).getId());
+    }
+
+    private PositionIndex write(List<KatzoomImportObject> cards) throws Exception {
+        Path indexFile = folder.getRoot().toPath().resolve("katzoom-positions.idx");
+        PositionIndex.write(indexFile, cards);
+        return PositionIndex.open(indexFile);
+    }
+
+    private KatzoomImportObject createCard(int id, int position, String letter, String tray) {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setLabel("b" + id);
+        kip.setTotalPosition(position);
+        kip.setLetterName(letter);
+        kip.setLetterPosition(position);
+        kip.setTrayName(tray);
+        kip.setTrayPosition((position - 1) % 5 + 1);
+        return kip;
+    }
+}
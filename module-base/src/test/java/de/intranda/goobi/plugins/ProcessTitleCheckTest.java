@@ -0,0 +1,88 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+public class ProcessTitleCheckTest {
+
+    @Test
+    public void testCheck() throws Exception {
+        List<String> existing = new ArrayList<>();
+        for (int i = 1; i < 100000; i = i + 2) {
+            existing.add(String.format("b%07d", i));
+        }
+        ListTitleSource source = new ListTitleSource(existing);
+        ProcessTitleCheck check = new ProcessTitleCheck(source, 0.01);
+
+        // new titles only
+        List<String> batch = new ArrayList<>();
+        for (int i = 200001; i < 210000; i = i + 2) {
+            batch.add(String.format("b%07d", i));
+        }
+        assertTrue(check.check(batch));
+
+        // collisions with existing processes and within the batch
+        batch.add("b0000001");
+        batch.add("b0099999");
+        batch.add("b0200001");
+        assertFalse(check.check(batch));
+        assertEquals(Arrays.asList("b0000001", "b0099999"), new ArrayList<>(check.getExistingTitles()));
+        assertEquals(Arrays.asList("b0200001"), new ArrayList<>(check.getDuplicateTitles()));
+        // the existing titles are read once per check
+        assertEquals(2, source.scans);
+    }
+
+    @Test
+    public void testBloomFilter() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add("b" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain("b" + i));
+            if (filter.mightContain("o" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 300);
+    }
+
+    private static class ListTitleSource implements ProcessTitleCheck.TitleSource {
+        private final List<String> titles;
+        private int scans;
+
+        ListTitleSource(List<String> titles) {
+            this.titles = titles;
+        }
+
+        @Override
+        public long countTitles() {
+            return titles.size();
+        }
+
+        @Override
+        public void readTitles(Consumer<String> consumer) {
+            scans++;
+            titles.forEach(consumer);
+        }
+
+        @Override
+        public Set<String> findTitles(Collection<String> candidates) {
+            Set<String> found = new HashSet<>(candidates);
+            found.retainAll(new HashSet<>(titles));
+            return found;
+        }
+    }
+}
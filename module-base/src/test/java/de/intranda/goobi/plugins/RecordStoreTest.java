@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.goobi.production.importer.Record;
+import org.junit.Test;
+
+public class RecordStoreTest {
+
+    @Test
+    public void testSpillAboveThreshold() throws Exception {
+        try (RecordStore store = new RecordStore(3)) {
+            for (int i = 1; i <= 10; i++) {
+                store.add(createRecord(i));
+            }
+            assertEquals(10, store.size());
+            assertEquals(7, store.getStoredRecords());
+            assertTrue(Files.exists(store.getStoreFile()));
+
+            // records in memory are returned as they are
+            Record first = store.get(0);
+            assertSame(first, store.get(0));
+
+            // stored records are restored on each access
+            Record stored = store.get(3);
+            assertNotSame(stored, store.get(3));
+            assertEquals("4", stored.getId());
+            KatzoomImportObject kip = (KatzoomImportObject) stored.getObject();
+            assertEquals(4, kip.getId());
+            assertEquals("b0000004", kip.getLabel());
+            assertEquals("B", kip.getLetterName());
+            assertEquals(Arrays.asList("m001/b0000004.tif", "m001/b0000004.txt"), kip.getFiles());
+        }
+    }
+
+    @Test
+    public void testIteration() throws Exception {
+        try (RecordStore store = new RecordStore(5)) {
+            for (int i = 1; i <= 12; i++) {
+                store.add(createRecord(i));
+            }
+            int expected = 1;
+            for (Record rec : store) {
+                assertEquals(String.valueOf(expected), rec.getId());
+                assertEquals(expected, ((KatzoomImportObject) rec.getObject()).getTotalPosition());
+                expected++;
+            }
+            assertEquals(13, expected);
+            assertEquals(7, store.subList(5, 12).size());
+            assertEquals("12", store.subList(5, 12).get(6).getId());
+        }
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        RecordStore store = new RecordStore(1);
+        store.add(createRecord(1));
+        assertNull(store.getStoreFile());
+        store.add(createRecord(2));
+        Path storeFile = store.getStoreFile();
+        assertTrue(Files.exists(storeFile));
+
+        store.close();
+        assertFalse(Files.exists(storeFile));
+        assertNull(store.getStoreFile());
+        assertEquals(0, store.getStoredRecords());
+        assertEquals(0, store.size());
+        // the mapping is released, the list cannot be used anymore
+        try {
+            store.get(0);
+            fail("Closed store was read");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            store.add(createRecord(3));
+            fail("Record added to closed store");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testReadOnly() throws Exception {
+        try (RecordStore store = new RecordStore(1)) {
+            store.add(createRecord(1));
+            store.set(0, createRecord(2));
+        }
+    }
+
+    private Record createRecord(int id) {
+        KatzoomImportObject kip = new KatzoomImportObject();
+        kip.setId(id);
+        kip.setLabel(String.format("b%07d", id));
+        kip.setCatalog("nka");
+        kip.setTotalPosition(id);
+        kip.setLetterName(id <= 2 ? "A" : "B");
+        kip.setLetterPosition(id);
+        kip.setTrayName("Ahammer");
+        kip.setTrayPosition(id);
+        kip.setFiles(Arrays.asList(String.format("m001/b%07d.tif", id), String.format("m001/b%07d.txt", id)));
+        Record rec = new Record();
+        rec.setId(String.valueOf(id));
+        rec.setData(rec.getId());
+        rec.setObject(kip);
+        return rec;
+    }
+}
@@ -0,0 +1,195 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ShardCoordinatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPlanShards() {
+        List<KatzoomImportObject> cards = createCards(250, 40);
+        List<int[]> trayShards = ShardCoordinator.planTrayShards(cards, 100);
+        assertEquals(7, trayShards.size());
+        assertEquals(1, trayShards.get(0)[0]);
+        assertEquals(40, trayShards.get(0)[1]);
+        assertEquals(250, trayShards.get(6)[1]);
+
+        List<int[]> rangeShards = ShardCoordinator.planRangeShards(cards, 100);
+        assertEquals(3, rangeShards.size());
+        assertEquals(201, rangeShards.get(2)[0]);
+        assertEquals(250, rangeShards.get(2)[1]);
+
+        // without trays, the positions are split
+        assertEquals(3, ShardCoordinator.planTrayShards(createCards(250, 0), 100).size());
+    }
+
+    @Test
+    public void testParallelNodes() throws Exception {
+        Path coordinationFolder = folder.newFolder("coordination").toPath();
+        List<KatzoomImportObject> cards = createCards(1000, 25);
+        int numberOfNodes = 4;
+
+        ConcurrentMap<Integer, String> importedBy = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger merges = new AtomicInteger();
+        List<KatzoomImportObject> merged = new ArrayList<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfNodes);
+        List<Future<?>> nodes = new ArrayList<>();
+        for (int i = 0; i < numberOfNodes; i++) {
+            String nodeName = "node" + i;
+            nodes.add(executor.submit(() -> {
+                ShardCoordinator coordinator = new ShardCoordinator(coordinationFolder, nodeName, 60000);
+                coordinator.init(ShardCoordinator.planTrayShards(cards, 100));
+                for (KatzoomImportObject kip : cards) {
+                    if (coordinator.accept(kip)) {
+                        if (importedBy.putIfAbsent(kip.getId(), nodeName) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                        Thread.sleep(1);
+                        coordinator.completed(kip);
+                    }
+                }
+                coordinator.finish();
+                if (coordinator.isComplete() && coordinator.claimMerge()) {
+                    merges.incrementAndGet();
+                    coordinator.readResults(merged::add);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> node : nodes) {
+            node.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(cards.size(), importedBy.size());
+        // more than one node got work
+        assertTrue(new ArrayList<>(importedBy.values()).stream().distinct().count() > 1);
+        assertEquals(1, merges.get());
+        assertEquals(cards.size(), merged.size());
+        for (int i = 0; i < cards.size(); i++) {
+            assertEquals(cards.get(i).getId(), merged.get(i).getId());
+            assertEquals(cards.get(i).getTrayName(), merged.get(i).getTrayName());
+            assertEquals(cards.get(i).getFiles(), merged.get(i).getFiles());
+        }
+    }
+
+    @Test
+    public void testStaleClaim() throws Exception {
+        Path coordinationFolder = folder.newFolder("coordination").toPath();
+        List<KatzoomImportObject> cards = createCards(100, 50);
+
+        ShardCoordinator failingNode = new ShardCoordinator(coordinationFolder, "failing", 1000);
+        failingNode.init(ShardCoordinator.planTrayShards(cards, 100));
+        assertTrue(failingNode.accept(cards.get(0)));
+
+        ShardCoordinator otherNode = new ShardCoordinator(coordinationFolder, "other", 1000);
+        otherNode.init(ShardCoordinator.planRangeShards(cards, 10));
+        // the existing shards are used
+        assertEquals(2, otherNode.getShards().size());
+        assertFalse(otherNode.accept(cards.get(0)));
+
+        // the failing node stops sending heartbeats
+        Path lockFile = coordinationFolder.resolve("shard-00000.lock.0");
+        Files.setLastModifiedTime(lockFile, FileTime.fromMillis(System.currentTimeMillis() - 5000));
+        otherNode = new ShardCoordinator(coordinationFolder, "other", 1000);
+        otherNode.init(ShardCoordinator.planTrayShards(cards, 100));
+        for (KatzoomImportObject kip : cards) {
+            assertTrue(otherNode.accept(kip));
+        }
+        otherNode.finish();
+        assertTrue(otherNode.isComplete());
+
+        // the failing node notices the takeover with its next card, before its heartbeat is due
+        assertFalse(failingNode.accept(cards.get(1)));
+    }
+
+    @Test
+    public void testOnlyCompletedCardsArePublished() throws Exception {
+        Path coordinationFolder = folder.newFolder("coordination").toPath();
+        List<KatzoomImportObject> cards = createCards(20, 10);
+
+        ShardCoordinator coordinator = new ShardCoordinator(coordinationFolder, "node", 60000);
+        coordinator.init(ShardCoordinator.planTrayShards(cards, 100));
+        for (KatzoomImportObject kip : cards) {
+            assertTrue(coordinator.accept(kip));
+            // every third card fails
+            if (kip.getTotalPosition() % 3 != 0) {
+                coordinator.completed(kip);
+            }
+        }
+        coordinator.finish();
+        assertTrue(coordinator.isComplete());
+
+        List<KatzoomImportObject> results = new ArrayList<>();
+        coordinator.readResults(results::add);
+        assertEquals(14, results.size());
+        for (KatzoomImportObject kip : results) {
+            assertTrue(kip.getTotalPosition() % 3 != 0);
+        }
+    }
+
+    @Test
+    public void testLostClaim() throws Exception {
+        Path coordinationFolder = folder.newFolder("coordination").toPath();
+        List<KatzoomImportObject> cards = createCards(20, 20);
+
+        ShardCoordinator coordinator = new ShardCoordinator(coordinationFolder, "node", 60000);
+        coordinator.init(ShardCoordinator.planTrayShards(cards, 100));
+        assertTrue(coordinator.accept(cards.get(0)));
+        assertFalse(coordinator.isNewShard(cards.get(1)));
+
+        // the lock file names another node, the ownership is checked for every card
+        Files.write(coordinationFolder.resolve("shard-00000.lock.0"), "other".getBytes(StandardCharsets.UTF_8));
+        assertFalse(coordinator.accept(cards.get(1)));
+        coordinator.completed(cards.get(1));
+        coordinator.finish();
+        assertFalse(coordinator.isComplete());
+    }
+
+    private static List<KatzoomImportObject> createCards(int number, int cardsPerTray) {
+        List<KatzoomImportObject> cards = new ArrayList<>();
+        for (int position = 1; position <= number; position++) {
+            KatzoomImportObject kip = new KatzoomImportObject();
+            kip.setId(position * 2 - 1);
+            kip.setCatalog("nka");
+            kip.setLabel(String.format("b%07d", kip.getId()));
+            kip.setTotalPosition(position);
+            kip.setLetterName("A");
+            kip.setLetterPosition(position);
+            if (cardsPerTray > 0) {
+                kip.setTrayName("tray" + (position - 1) / cardsPerTray);
+                kip.setTrayPosition((position - 1) % cardsPerTray + 1);
+            }
+            List<String> files = new ArrayList<>();
+            files.add("/import/nka/m001/z001/h001/" + kip.getLabel() + ".tif");
+            kip.setFiles(files);
+            cards.add(kip);
+        }
+        return cards;
+    }
+}